@@ -0,0 +1,81 @@
+package com.argonmobile.stackview.model;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Checks that the synthetic thumbnails take the same opaque paths as real screenshots.  This runs
+ * on a device, as the JVM tests only see stubbed bitmaps.
+ */
+public class SyntheticThumbnailTest extends TestCase {
+
+    static final int ThumbnailWidth = 64;
+
+    File mDir;
+    BitmapPool mBitmapPool;
+    ThumbnailCache mCache;
+    Profile.TaskKey mKey;
+    Bitmap mThumbnail;
+
+    static boolean isJpeg(byte[] data) {
+        return data.length >= 2 && (data[0] & 0xff) == 0xff && (data[1] & 0xff) == 0xd8;
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        mDir = File.createTempFile("thumbnails", "");
+        assertTrue(mDir.delete() && mDir.mkdir());
+        mBitmapPool = new BitmapPool(1 << 20);
+        mCache = new ThumbnailCache(mBitmapPool, 1 << 20, 8, 1 << 16, 1 << 20, true, mDir,
+                1 << 20);
+        mCache.setThumbnailWidth(ThumbnailWidth);
+        mKey = new Profile.TaskKey();
+        mKey.id = 0;
+        SyntheticProfileSource source = new SyntheticProfileSource(10, 2, 1, ThumbnailWidth, 48,
+                mBitmapPool);
+        mThumbnail = source.loadThumbnail(mKey, ThumbnailWidth);
+    }
+
+    @Override
+    protected void tearDown() {
+        for (File file : mDir.listFiles()) {
+            file.delete();
+        }
+        mDir.delete();
+    }
+
+    public void testOpaqueThumbnailIsWrittenToDiskAsJpeg() throws IOException {
+        assertFalse(mThumbnail.hasAlpha());
+        mCache.putOnDisk(mKey, mThumbnail);
+
+        File file = new File(mDir, mKey.id + "." + ThumbnailWidth + ThumbnailCache.FileSuffix);
+        byte[] header = new byte[2];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            assertEquals(header.length, in.read(header));
+        } finally {
+            in.close();
+        }
+        assertTrue(isJpeg(header));
+
+        Bitmap decoded = mCache.getFromDisk(mKey, ThumbnailWidth, new BitmapFactory.Options());
+        assertEquals(Bitmap.Config.RGB_565, decoded.getConfig());
+    }
+
+    public void testOpaqueThumbnailIsCompactedAsJpeg() {
+        mCache.put(mKey, mThumbnail);
+        mCache.setTaskIndex(mKey, 10);
+        assertTrue(mCache.compactColdEntry(0, 0, 1));
+        assertTrue(isJpeg(mCache.mCompressedCache.get(mKey.id)));
+
+        Bitmap decoded = mCache.getFromCompressed(mKey, ThumbnailWidth,
+                new BitmapFactory.Options());
+        assertEquals(Bitmap.Config.RGB_565, decoded.getConfig());
+    }
+}
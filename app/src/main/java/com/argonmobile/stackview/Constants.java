@@ -23,6 +23,10 @@ public class Constants {
             public static final boolean EnableDevAppInfoOnLongPress = true;
             // Enables debug mode
             public static final boolean EnableDebugMode = false;
+            // Enables the trace points in the hot paths of the stack, and whether they are written
+            // to a Chrome trace file in the cache rather than to systrace
+            public static final boolean EnableTracing = false;
+            public static final boolean EnableTraceFile = false;
             // Enables the search bar layout
             public static final boolean EnableSearchLayout = true;
             // Enables the thumbnail alpha on the front-most task
@@ -39,6 +43,12 @@ public class Constants {
             public static final int SystemServicesProxyMockPackageCount = 3;
             // Defines the number of mock recents tasks to create
             public static final int SystemServicesProxyMockTaskCount = 100;
+            // Defines the number of mock recents tasks up to which they are all loaded rather than
+            // paged, so that the stack groups and filters them
+            public static final int SystemServicesProxyMockMaxUnpagedTaskCount = 256;
+            // Defines the size of the thumbnails of the mock recents tasks
+            public static final int SystemServicesProxyMockThumbnailWidth = 540;
+            public static final int SystemServicesProxyMockThumbnailHeight = 960;
         }
     }
 
@@ -53,9 +63,45 @@ public class Constants {
         public static class RecentsTaskLoader {
             // XXX: This should be calculated on the first load
             public static final int PreloadFirstTasksCount = 6;
+            // The number of background threads loading the task data
+            public static final int LoaderThreadCount = 2;
+            // The number of tasks to load when the configuration does not say
+            public static final int MaxNumTasksToLoad = 24;
+            // The fraction of the heap the thumbnails in memory may take
+            public static final int ThumbnailMemoryCacheHeapDivisor = 8;
+            // The fraction of the heap the thumbnail bitmaps kept for reuse may take
+            public static final int ThumbnailBitmapPoolHeapDivisor = 16;
+            // The number of bytes the thumbnails on disk may take
+            public static final long ThumbnailDiskCacheSize = 16 * 1024 * 1024;
+            public static final String ThumbnailDiskCacheDirName = "thumbnails";
+            // The width of the previews shown while the thumbnails load, and the number of bytes
+            // the previews in memory may take
+            public static final int ThumbnailPreviewWidth = 32;
+            public static final int ThumbnailPreviewCacheSize = 2 * 1024 * 1024;
+            // Whether opaque thumbnails are kept as RGB_565 rather than ARGB_8888
+            public static final boolean UseRgb565ForOpaqueThumbnails = true;
+            // The fraction of the heap the compressed thumbnails may take, and how many tasks away
+            // from the visible ones a thumbnail is compressed, or -1 to keep all of them decoded
+            public static final int ThumbnailCompressedCacheHeapDivisor = 32;
+            public static final int ThumbnailColdTaskDistance = 12;
+            // The number of activities whose icons and labels are kept in memory
+            public static final int ActivityResourceCacheSize = 64;
+            // The number of tasks whose header colors are kept in memory
+            public static final int TaskColorCacheSize = 512;
+            // The number of bind payloads kept for the tasks that are prefetched but not bound
+            public static final int BindPayloadCacheSize = 16;
+        }
+
+        public static class ProfileStack {
+            // The number of tasks loaded from a data source at a time
+            public static final int PageSize = 32;
+            // The minimum number of pages kept in the window of a paged stack
+            public static final int WindowPageCount = 4;
         }
 
         public static class TaskStackView {
+            // The time binding a task view should take at most, checked in debug mode
+            public static final int TaskViewBindBudgetMicros = 500;
             public static final int TaskStackOverscrollRange = 150;
             public static final int FilterStartDelay = 25;
         }
@@ -1,5 +1,7 @@
 package com.argonmobile.stackview;
 
+import android.graphics.Bitmap;
+import android.os.AsyncTask;
 import android.support.v7.app.ActionBarActivity;
 import android.os.Bundle;
 import android.util.Log;
@@ -10,17 +12,60 @@ import android.view.WindowManager;
 
 import com.argonmobile.stackview.model.Profile;
 import com.argonmobile.stackview.model.ProfileStack;
+import com.argonmobile.stackview.model.RecentProfileLoader;
+import com.argonmobile.stackview.model.StackSnapshotFile;
+import com.argonmobile.stackview.model.SyntheticProfileSource;
+import com.argonmobile.stackview.util.RecentsTrace;
 import com.argonmobile.stackview.util.ReferenceCountedTrigger;
 import com.argonmobile.stackview.view.RecentsView;
 import com.argonmobile.stackview.view.ViewAnimation;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 
 public class MainActivity extends ActionBarActivity {
 
+    static final String TAG = "MainActivity";
+
+    // Writes the snapshots of the stacks in the order the activity was stopped in
+    static final Executor sSnapshotWriteExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Loads the thumbnails of the tasks from the snapshots they were restored from, and from
+     * another source if a snapshot does not have them
+     */
+    static class SnapshotThumbnailSource implements RecentProfileLoader.ThumbnailSource {
+        final ArrayList<StackSnapshotFile> mSnapshots;
+        final RecentProfileLoader.ThumbnailSource mFallbackSource;
+
+        SnapshotThumbnailSource(ArrayList<StackSnapshotFile> snapshots,
+                RecentProfileLoader.ThumbnailSource fallbackSource) {
+            mSnapshots = snapshots;
+            mFallbackSource = fallbackSource;
+        }
+
+        @Override
+        public Bitmap loadThumbnail(Profile.TaskKey key, int width) {
+            int snapshotCount = mSnapshots.size();
+            for (int i = 0; i < snapshotCount; i++) {
+                Bitmap thumbnail = mSnapshots.get(i).loadThumbnail(key, width);
+                if (thumbnail != null) {
+                    return thumbnail;
+                }
+            }
+            return mFallbackSource.loadThumbnail(key, width);
+        }
+    }
+
     private RecentsConfiguration mConfig;
     private RecentsView mRecentsView;
+    private SyntheticProfileSource mSyntheticSource;
+    private ArrayList<ProfileStack> mStacks;
+    private AsyncTask<Void, Void, ArrayList<ProfileStack>> mLoadTaskStacksTask;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -31,6 +76,18 @@ public class MainActivity extends ActionBarActivity {
 
         // Initialize the loader and the configuration
         mConfig = RecentsConfiguration.reinitialize(this);
+        RecentProfileLoader.initialize(this);
+
+        // Generate the mock tasks, which also draws their thumbnails
+        int tasksPerGroup = Constants.DebugFlags.App.EnableSimulatedTaskGroups ?
+                Constants.DebugFlags.App.TaskAffiliationsGroupCount : 1;
+        mSyntheticSource = new SyntheticProfileSource(
+                Constants.DebugFlags.App.SystemServicesProxyMockTaskCount,
+                Constants.DebugFlags.App.SystemServicesProxyMockPackageCount, tasksPerGroup,
+                Constants.DebugFlags.App.SystemServicesProxyMockThumbnailWidth,
+                Constants.DebugFlags.App.SystemServicesProxyMockThumbnailHeight,
+                RecentProfileLoader.getInstance().getBitmapPool());
+        RecentProfileLoader.getInstance().setThumbnailSource(mSyntheticSource);
 
         setContentView(R.layout.activity_main);
 
@@ -38,14 +95,17 @@ public class MainActivity extends ActionBarActivity {
         mRecentsView.setSystemUiVisibility(View.SYSTEM_UI_FLAG_LAYOUT_STABLE |
                 View.SYSTEM_UI_FLAG_LAYOUT_FULLSCREEN |
                 View.SYSTEM_UI_FLAG_LAYOUT_HIDE_NAVIGATION);
-
-        updateRecentsTasks();
     }
 
     @Override
     protected void onStart() {
         super.onStart();
 
+        // Load the tasks, drawing the first frame from the last snapshot if there is one
+        if (mStacks == null) {
+            loadTaskStacks();
+        }
+
         // Register any broadcast receivers for the task loader
         //RecentProfileLoader.getInstance().registerReceivers(this, mRecentsView);
     }
@@ -64,10 +124,29 @@ public class MainActivity extends ActionBarActivity {
     protected void onStop() {
         super.onStop();
 
+        // Stop loading the live tasks, and snapshot the stacks for the next time we start
+        if (mLoadTaskStacksTask != null) {
+            mLoadTaskStacksTask.cancel(false);
+            mLoadTaskStacksTask = null;
+            RecentProfileLoader.getInstance().setThumbnailSource(mSyntheticSource);
+        }
+        writeTaskStackSnapshots();
+        if (RecentsTrace.Enabled && Constants.DebugFlags.App.EnableTraceFile) {
+            writeTraceFile();
+        }
+
         // Remove all the views
         mRecentsView.removeAllTaskStacks();
+        mStacks = null;
+    }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
 
+        // Drop the views first, so the thumbnails they release are trimmed with the caches
+        mRecentsView.onTrimMemory(level);
+        RecentProfileLoader.getInstance().onTrimMemory(level);
     }
 
     @Override
@@ -92,80 +171,195 @@ public class MainActivity extends ActionBarActivity {
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Shows the stacks from the snapshots written when we were last stopped and loads the live
+     * tasks in the background, or loads the tasks right away if there are no snapshots.
+     */
+    void loadTaskStacks() {
+        if (!restoreTaskStackSnapshots()) {
+            updateRecentsTasks();
+            return;
+        }
+
+        mLoadTaskStacksTask = new AsyncTask<Void, Void, ArrayList<ProfileStack>>() {
+            @Override
+            protected ArrayList<ProfileStack> doInBackground(Void... params) {
+                return loadRecentsTaskStacks();
+            }
+
+            @Override
+            protected void onPostExecute(ArrayList<ProfileStack> stacks) {
+                mLoadTaskStacksTask = null;
+                RecentProfileLoader.getInstance().setThumbnailSource(mSyntheticSource);
+
+                // Keep the scroll of the stacks that were drawn from the snapshots, by task since
+                // the live tasks are spaced by group rather than evenly
+                int stackCount = Math.min(stacks.size(), mStacks.size());
+                int[] scrollTaskIds = new int[stackCount];
+                float[] scrollTaskOffsets = new float[stackCount];
+                for (int i = 0; i < stackCount; i++) {
+                    ProfileStack stack = mStacks.get(i);
+                    scrollTaskIds[i] = mRecentsView.getStackScrollTaskId(stack);
+                    scrollTaskOffsets[i] = mRecentsView.getStackScrollTaskOffset(stack,
+                            scrollTaskIds[i]);
+                }
+                setRecentsTaskStacks(stacks);
+                for (int i = 0; i < stackCount; i++) {
+                    mRecentsView.setRestoredStackScroll(stacks.get(i), scrollTaskIds[i],
+                            scrollTaskOffsets[i]);
+                }
+            }
+        };
+        mLoadTaskStacksTask.execute();
+    }
+
+    /** Maps the snapshots of the stacks and shows them, returning whether there were any */
+    boolean restoreTaskStackSnapshots() {
+        ArrayList<ProfileStack> stacks = new ArrayList<ProfileStack>();
+        ArrayList<StackSnapshotFile> snapshots = new ArrayList<StackSnapshotFile>();
+        RecentProfileLoader loader = RecentProfileLoader.getInstance();
+        for (int i = 0; ; i++) {
+            File file = getTaskStackSnapshotFile(i);
+            if (!file.exists()) {
+                break;
+            }
+            try {
+                StackSnapshotFile snapshot = StackSnapshotFile.map(file, loader.getBitmapPool());
+                ProfileStack stack = new ProfileStack();
+                stack.setDataSource(snapshot);
+                stacks.add(stack);
+                snapshots.add(snapshot);
+            } catch (IOException e) {
+                // Discard a snapshot that is truncated or corrupt
+                Log.w(TAG, "Failed to map stack snapshot " + file, e);
+                file.delete();
+                break;
+            }
+        }
+        if (stacks.isEmpty()) {
+            return false;
+        }
+
+        // Decode the thumbnails of the snapshots on the loader threads until the live tasks load
+        loader.setThumbnailSource(new SnapshotThumbnailSource(snapshots, mSyntheticSource));
+
+        setRecentsTaskStacks(stacks);
+        int stackCount = stacks.size();
+        for (int i = 0; i < stackCount; i++) {
+            StackSnapshotFile snapshot = snapshots.get(i);
+            mRecentsView.setRestoredStackScroll(stacks.get(i), snapshot.getScrollTaskId(),
+                    snapshot.getScrollTaskOffset());
+        }
+        return true;
+    }
+
+    /**
+     * Writes a snapshot of each stack to be drawn from when we next start.  The loaded tasks and
+     * their thumbnails are captured here, and written in the background.
+     */
+    void writeTaskStackSnapshots() {
+        if (mStacks == null) {
+            return;
+        }
+        RecentProfileLoader loader = RecentProfileLoader.getInstance();
+        final int stackCount = mStacks.size();
+        final StackSnapshotFile.Contents[] contents = new StackSnapshotFile.Contents[stackCount];
+        for (int i = 0; i < stackCount; i++) {
+            ProfileStack stack = mStacks.get(i);
+            int scrollTaskId = mRecentsView.getStackScrollTaskId(stack);
+            contents[i] = StackSnapshotFile.capture(stack, scrollTaskId,
+                    mRecentsView.getStackScrollTaskOffset(stack, scrollTaskId), loader);
+        }
+        final File cacheDir = getCacheDir();
+        sSnapshotWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int writtenCount = stackCount;
+                for (int i = 0; i < stackCount; i++) {
+                    try {
+                        if (i < writtenCount) {
+                            StackSnapshotFile.write(getTaskStackSnapshotFile(cacheDir, i),
+                                    contents[i]);
+                        }
+                    } catch (IOException e) {
+                        Log.w(TAG, "Failed to write stack snapshot " + i, e);
+                        writtenCount = i;
+                    } finally {
+                        contents[i].release();
+                    }
+                }
+
+                // Drop the snapshots of any stacks that are gone, or that follow one that failed
+                for (int i = writtenCount; getTaskStackSnapshotFile(cacheDir, i).delete(); i++) {}
+            }
+        });
+    }
+
+    /** Writes the trace events recorded since we last stopped to a file in the cache */
+    void writeTraceFile() {
+        File file = new File(getCacheDir(), "recents_trace.json");
+        int droppedEventCount = RecentsTrace.getDroppedEventCount();
+        try {
+            RecentsTrace.writeTraceFile(file);
+            Log.i(TAG, "Wrote trace to " + file + ", dropped " + droppedEventCount + " events");
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write trace " + file, e);
+        }
+    }
+
+    /** Returns the file holding the snapshot of the stack at an index */
+    File getTaskStackSnapshotFile(int stackIndex) {
+        return getTaskStackSnapshotFile(getCacheDir(), stackIndex);
+    }
+
+    /** Returns the file holding the snapshot of the stack at an index in a cache directory */
+    static File getTaskStackSnapshotFile(File cacheDir, int stackIndex) {
+        return new File(cacheDir, "recents_stack_" + stackIndex + ".snapshot");
+    }
+
     void updateRecentsTasks() {
+        setRecentsTaskStacks(loadRecentsTaskStacks());
+    }
 
-        // Load all the tasks
+    /** Loads all the tasks, this does not touch any views and can be called off the UI thread */
+    ArrayList<ProfileStack> loadRecentsTaskStacks() {
 
+        // Load all the tasks from the synthetic source if there are few enough, or page them in
+        // with the front-most ones in the window so that they can be preloaded
         ArrayList<ProfileStack> stacks = new ArrayList<>();
         ProfileStack mockStack = new ProfileStack();
-        Profile mockProfile1 = new Profile();
-        mockProfile1.isLaunchTarget = true;
-        mockProfile1.key = new Profile.TaskKey();
-        mockProfile1.key.id = 0;
-        mockStack.addTask(mockProfile1);
-
-        Profile mockProfile2 = new Profile();
-        mockProfile2.isLaunchTarget = true;
-        mockProfile2.key = new Profile.TaskKey();
-        mockProfile2.key.id = 1;
-        mockStack.addTask(mockProfile2);
-
-        mockProfile2 = new Profile();
-        mockProfile2.isLaunchTarget = true;
-        mockProfile2.key = new Profile.TaskKey();
-        mockProfile2.key.id = 2;
-        mockStack.addTask(mockProfile2);
-
-        mockProfile2 = new Profile();
-        mockProfile2.isLaunchTarget = true;
-        mockProfile2.key = new Profile.TaskKey();
-        mockProfile2.key.id = 3;
-        mockStack.addTask(mockProfile2);
-
-        mockProfile2 = new Profile();
-        mockProfile2.isLaunchTarget = true;
-        mockProfile2.key = new Profile.TaskKey();
-        mockProfile2.key.id = 4;
-        mockStack.addTask(mockProfile2);
-
-        mockProfile2 = new Profile();
-        mockProfile2.isLaunchTarget = true;
-        mockProfile2.key = new Profile.TaskKey();
-        mockProfile2.key.id = 5;
-        mockStack.addTask(mockProfile2);
-
-        mockProfile2 = new Profile();
-        mockProfile2.isLaunchTarget = true;
-        mockProfile2.key = new Profile.TaskKey();
-        mockProfile2.key.id = 6;
-        mockStack.addTask(mockProfile2);
-
-        mockProfile2 = new Profile();
-        mockProfile2.isLaunchTarget = true;
-        mockProfile2.key = new Profile.TaskKey();
-        mockProfile2.key.id = 7;
-        mockStack.addTask(mockProfile2);
-
-        mockProfile2 = new Profile();
-        mockProfile2.isLaunchTarget = true;
-        mockProfile2.key = new Profile.TaskKey();
-        mockProfile2.key.id = 8;
-        mockStack.addTask(mockProfile2);
-
-        mockProfile2 = new Profile();
-        mockProfile2.isLaunchTarget = true;
-        mockProfile2.key = new Profile.TaskKey();
-        mockProfile2.key.id = 9;
-        mockStack.addTask(mockProfile2);
+        int taskCount = mSyntheticSource.getCount();
+        if (taskCount <= Constants.DebugFlags.App.SystemServicesProxyMockMaxUnpagedTaskCount) {
+            ArrayList<Profile> tasks = new ArrayList<Profile>(taskCount);
+            mSyntheticSource.loadPage(0, taskCount, tasks);
+            mockStack.setTasks(tasks);
+        } else {
+            mockStack.setDataSource(mSyntheticSource);
+            mockStack.ensureWindow(taskCount - Constants.Values.RecentsTaskLoader.MaxNumTasksToLoad,
+                    taskCount - 1);
+        }
 
         stacks.add(mockStack);
+        return stacks;
+    }
+
+    /** Shows the stacks */
+    void setRecentsTaskStacks(ArrayList<ProfileStack> stacks) {
+        mStacks = stacks;
+
+        // Load the data of the front-most tasks before they are first drawn
+        RecentProfileLoader loader = RecentProfileLoader.getInstance();
+        int taskStackCount = stacks.size();
+        for (int i = 0; i < taskStackCount; i++) {
+            loader.preloadTasks(stacks.get(i));
+        }
+
         if (!stacks.isEmpty()) {
             mRecentsView.setTaskStacks(stacks);
         }
         mConfig.launchedWithNoRecentTasks = false;
 
         // Mark the task that is the launch target
-        int taskStackCount = stacks.size();
         if (mConfig.launchedToTaskId != -1) {
             for (int i = 0; i < taskStackCount; i++) {
                 ProfileStack stack = stacks.get(i);
@@ -186,6 +186,9 @@ public class RecentsConfiguration {
         filteringNewViewsAnimDuration =
                 res.getInteger(R.integer.recents_filter_animate_new_views_duration);
 
+        // Loading
+        maxNumTasksToLoad = res.getInteger(R.integer.config_recents_max_num_tasks_to_load);
+
         // Task stack
         taskStackScrollDuration =
                 res.getInteger(R.integer.recents_animate_task_stack_scroll_duration);
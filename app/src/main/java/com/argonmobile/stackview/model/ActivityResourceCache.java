@@ -0,0 +1,84 @@
+package com.argonmobile.stackview.model;
+
+import android.content.ComponentName;
+import android.content.pm.ActivityInfo;
+import android.content.pm.PackageManager;
+import android.graphics.drawable.Drawable;
+import android.util.Log;
+import android.util.LruCache;
+
+/**
+ * A cache of the icons and labels of activities, keyed by their component, and shared by all the
+ * tasks of an activity.  Entries are loaded from the package manager on the loader threads, and
+ * looked up on the main thread without touching the package manager, so binding a task header
+ * only costs a map lookup.  The cache holds up to a number of activities, evicting the least
+ * recently used ones first.
+ */
+public class ActivityResourceCache {
+    static final String TAG = "ActivityResourceCache";
+
+    /**
+     * The icon and label of an activity, either of which may be null.  The icon is shared, so
+     * views draw new drawables from its constant state rather than showing it directly.
+     */
+    public static class Entry {
+        public final Drawable icon;
+        public final String label;
+
+        Entry(Drawable icon, String label) {
+            this.icon = icon;
+            this.label = label;
+        }
+    }
+
+    final PackageManager mPackageManager;
+    final LruCache<ComponentName, Entry> mEntries;
+
+    public ActivityResourceCache(PackageManager packageManager, int maxEntries) {
+        mPackageManager = packageManager;
+        mEntries = new LruCache<ComponentName, Entry>(maxEntries);
+    }
+
+    /** Returns the resources of an activity if they are loaded, or null otherwise */
+    public Entry get(ComponentName component) {
+        return mEntries.get(component);
+    }
+
+    /**
+     * Returns the resources of an activity, loading them from the package manager if they are not
+     * loaded yet.  This blocks, so it should be called on the loader threads.
+     */
+    public Entry load(ComponentName component) {
+        Entry entry = mEntries.get(component);
+        if (entry != null) {
+            return entry;
+        }
+        Drawable icon = null;
+        String label = null;
+        try {
+            ActivityInfo info = mPackageManager.getActivityInfo(component, 0);
+            icon = info.loadIcon(mPackageManager);
+            CharSequence loadedLabel = info.loadLabel(mPackageManager);
+            if (loadedLabel != null) {
+                label = loadedLabel.toString();
+            }
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.w(TAG, "Failed to load the resources of " + component, e);
+        }
+        // Keep the entry even if nothing was found, so that the lookup is not repeated on every bind
+        entry = new Entry(icon, label);
+        mEntries.put(component, entry);
+        return entry;
+    }
+
+    /** Evicts all the resources */
+    public void evictAll() {
+        mEntries.evictAll();
+    }
+
+    @Override
+    public String toString() {
+        return "ActivityResourceCache: " + mEntries.size() + "/" + mEntries.maxSize() +
+                " activities, hits: " + mEntries.hitCount() + " misses: " + mEntries.missCount();
+    }
+}
@@ -0,0 +1,189 @@
+package com.argonmobile.stackview.model;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * A pool of thumbnail bitmaps that are no longer shown or cached, bucketed by their size and
+ * config, so that new thumbnails can be decoded or scaled into them instead of allocating new
+ * pixels.  The pool holds up to a number of bytes, dropping the bitmaps that were returned first.
+ *
+ * Bitmaps are reference counted: the memory cache and each task that a thumbnail is bound to hold
+ * a reference, and a bitmap only enters the pool once its last reference is released.  A bitmap
+ * that was never acquired enters the pool on its first release.  Only the sizes and configs that
+ * have been asked for are pooled, the others would never be taken out again.
+ */
+public class BitmapPool {
+
+    final long mMaxSizeBytes;
+
+    // All guarded by this
+    final HashMap<Long, ArrayList<Bitmap>> mBuckets = new HashMap<Long, ArrayList<Bitmap>>();
+    // The pooled bitmaps in the order they entered the pool
+    final LinkedHashSet<Bitmap> mPooledBitmaps = new LinkedHashSet<Bitmap>();
+    final IdentityHashMap<Bitmap, Integer> mRefCounts = new IdentityHashMap<Bitmap, Integer>();
+    // The buckets that bitmaps have been asked for
+    final HashSet<Long> mRequestedBuckets = new HashSet<Long>();
+    long mSizeBytes;
+    int mReuseCount;
+    int mAllocationCount;
+
+    // Used to scale bitmaps, guarded by mScaleCanvas
+    final Canvas mScaleCanvas = new Canvas();
+    final Paint mScalePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    final Rect mTmpRect = new Rect();
+
+    public BitmapPool(long maxSizeBytes) {
+        mMaxSizeBytes = maxSizeBytes;
+    }
+
+    /**
+     * Takes a bitmap of a size and config out of the pool, or returns null if there is none.  The
+     * pixels of the bitmap are left as they were.
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        long key = getBucketKey(width, height, config);
+        mRequestedBuckets.add(key);
+        ArrayList<Bitmap> bucket = mBuckets.get(key);
+        if (bucket == null || bucket.isEmpty()) {
+            mAllocationCount++;
+            return null;
+        }
+        Bitmap bitmap = bucket.remove(bucket.size() - 1);
+        mPooledBitmaps.remove(bitmap);
+        mSizeBytes -= bitmap.getAllocationByteCount();
+        mReuseCount++;
+        return bitmap;
+    }
+
+    /** Adds a reference to a bitmap */
+    public synchronized void acquire(Bitmap bitmap) {
+        Integer refCount = mRefCounts.get(bitmap);
+        mRefCounts.put(bitmap, (refCount != null) ? refCount + 1 : 1);
+    }
+
+    /** Releases a reference to a bitmap, returning it to the pool if it was the last one */
+    public synchronized void release(Bitmap bitmap) {
+        Integer refCount = mRefCounts.get(bitmap);
+        if (refCount != null && refCount > 1) {
+            mRefCounts.put(bitmap, refCount - 1);
+            return;
+        }
+        mRefCounts.remove(bitmap);
+        put(bitmap);
+    }
+
+    /**
+     * Returns a bitmap that nothing references to the pool, unless no bitmap of its size and
+     * config has been asked for
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap.isRecycled() || !bitmap.isMutable() || mRefCounts.containsKey(bitmap) ||
+                mPooledBitmaps.contains(bitmap)) {
+            return;
+        }
+        int byteCount = bitmap.getAllocationByteCount();
+        long key = getBucketKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        if (byteCount > mMaxSizeBytes || !mRequestedBuckets.contains(key)) {
+            return;
+        }
+        ArrayList<Bitmap> bucket = mBuckets.get(key);
+        if (bucket == null) {
+            bucket = new ArrayList<Bitmap>();
+            mBuckets.put(key, bucket);
+        }
+        bucket.add(bitmap);
+        mPooledBitmaps.add(bitmap);
+        mSizeBytes += byteCount;
+        trimToSize(mMaxSizeBytes);
+    }
+
+    /**
+     * Returns a bitmap scaled to a width, keeping its aspect ratio, drawn into a pooled bitmap if
+     * there is one of that size.  Returns the bitmap itself if it is already that wide or the
+     * width is zero or less, otherwise the caller still owns the original bitmap.
+     */
+    public Bitmap scaleToWidth(Bitmap bitmap, int width) {
+        return scaleToWidth(bitmap, width, bitmap.getConfig());
+    }
+
+    /**
+     * Returns a bitmap scaled to a width and converted to a config, as above.  Returns the bitmap
+     * itself if it is already that wide and has the config.
+     */
+    public Bitmap scaleToWidth(Bitmap bitmap, int width, Bitmap.Config config) {
+        int bitmapWidth = bitmap.getWidth();
+        if (config == null) {
+            config = Bitmap.Config.ARGB_8888;
+        }
+        if (width <= 0 || bitmapWidth == width) {
+            if (bitmap.getConfig() == config) {
+                return bitmap;
+            }
+            width = bitmapWidth;
+        }
+        int height = Math.max(1, Math.round((float) bitmap.getHeight() * width / bitmapWidth));
+        Bitmap scaled = get(width, height, config);
+        if (scaled == null) {
+            scaled = Bitmap.createBitmap(width, height, config);
+        } else if (bitmap.hasAlpha()) {
+            scaled.eraseColor(0);
+        }
+        scaled.setHasAlpha(bitmap.hasAlpha());
+        synchronized (mScaleCanvas) {
+            mTmpRect.set(0, 0, width, height);
+            mScaleCanvas.setBitmap(scaled);
+            mScaleCanvas.drawBitmap(bitmap, null, mTmpRect, mScalePaint);
+            mScaleCanvas.setBitmap(null);
+        }
+        return scaled;
+    }
+
+    /** Drops the bitmaps that entered the pool first until it holds no more than a size */
+    public synchronized void trimToSize(long maxSizeBytes) {
+        Iterator<Bitmap> iter = mPooledBitmaps.iterator();
+        while (mSizeBytes > maxSizeBytes && iter.hasNext()) {
+            Bitmap bitmap = iter.next();
+            iter.remove();
+            mBuckets.get(getBucketKey(bitmap.getWidth(), bitmap.getHeight(),
+                    bitmap.getConfig())).remove(bitmap);
+            mSizeBytes -= bitmap.getAllocationByteCount();
+        }
+    }
+
+    /** Drops all the pooled bitmaps, and forgets the sizes that were asked for */
+    public synchronized void clear() {
+        trimToSize(0);
+        mRequestedBuckets.clear();
+    }
+
+    /** Returns the number of bytes the pooled bitmaps may take */
+    public long getMaxSize() {
+        return mMaxSizeBytes;
+    }
+
+    /** Returns the number of bytes of the pooled bitmaps */
+    public synchronized long getSize() {
+        return mSizeBytes;
+    }
+
+    private static long getBucketKey(int width, int height, Bitmap.Config config) {
+        int configOrdinal = (config != null) ? config.ordinal() : 0xFF;
+        return ((long) width << 32) | ((long) height << 8) | configOrdinal;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BitmapPool: " + mSizeBytes + "/" + mMaxSizeBytes + " bytes, reused: " +
+                mReuseCount + " allocated: " + mAllocationCount;
+    }
+}
@@ -1,18 +1,107 @@
 package com.argonmobile.stackview.model;
 
+import android.content.ComponentName;
 import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
 
 /**
  * Created by argon on 3/22/15.
  */
 public class Profile {
+    /* Task callbacks */
+    public interface TaskCallbacks {
+        /* Notifies when a task has been bound */
+        public void onTaskDataLoaded();
+        /* Notifies when a task has been unbound */
+        public void onTaskDataUnloaded();
+    }
+
     public static class TaskKey {
         public int id;
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TaskKey)) {
+                return false;
+            }
+            return id == ((TaskKey) o).id;
+        }
+
+        @Override
+        public int hashCode() {
+            return id;
+        }
+
+        @Override
+        public String toString() {
+            return "Task.Key: " + id;
+        }
     }
 
     public TaskKey key = new TaskKey();
+    public int taskAffiliation;
+    public TaskGrouping group;
     public Bitmap thumbnail;
+    // A tiny version of the thumbnail to show until the thumbnail is loaded
+    public Bitmap thumbnailPreview;
+    // The payload prepared to bind the thumbnail with, if there is one
+    public TaskBindPayload bindPayload;
     public String activityLabel;
+    // The activity the task was started with, whose icon and label are shown in its header
+    public ComponentName component;
+    public Drawable applicationIcon;
+    // The color of the header of the task, or 0 if it is not known yet, and whether light text
+    // is used on it
+    public int colorPrimary;
+    public boolean useLightOnPrimaryColor;
 
     public boolean isLaunchTarget = true;
+
+    private TaskCallbacks mCb;
+
+    /** Set the callbacks */
+    public void setCallbacks(TaskCallbacks cb) {
+        mCb = cb;
+    }
+
+    /** Set the grouping, leaving the group this task was in first */
+    public void setGroup(TaskGrouping group) {
+        TaskGrouping prevGroup = this.group;
+        this.group = group;
+        if (prevGroup != null && group != null && prevGroup != group) {
+            prevGroup.removeTask(this);
+        }
+    }
+
+    /** Notifies the callback listeners that this task has been loaded */
+    public void notifyTaskDataLoaded(Bitmap thumbnail) {
+        this.thumbnail = thumbnail;
+        if (mCb != null) {
+            mCb.onTaskDataLoaded();
+        }
+    }
+
+    /** Notifies the callback listeners that a preview of the thumbnail has been loaded */
+    public void notifyTaskPreviewLoaded(Bitmap thumbnailPreview) {
+        this.thumbnailPreview = thumbnailPreview;
+        if (mCb != null) {
+            mCb.onTaskDataLoaded();
+        }
+    }
+
+    /** Notifies the callback listeners that this task has been unloaded */
+    public void notifyTaskDataUnloaded() {
+        this.thumbnail = null;
+        this.bindPayload = null;
+        this.applicationIcon = null;
+        this.thumbnailPreview = null;
+        if (mCb != null) {
+            mCb.onTaskDataUnloaded();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Task: " + key.id + " label: " + activityLabel;
+    }
 }
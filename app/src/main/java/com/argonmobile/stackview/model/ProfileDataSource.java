@@ -0,0 +1,18 @@
+package com.argonmobile.stackview.model;
+
+import java.util.List;
+
+/**
+ * A source of tasks for a paged ProfileStack, which only asks for the pages of tasks around the
+ * ones that are visible.
+ */
+public interface ProfileDataSource {
+    /** Returns the total number of tasks, from the back of the stack to the front */
+    public int getCount();
+    /** Appends the tasks in the range [start, start + count) to profilesOut, in stack order */
+    public void loadPage(int start, int count, List<Profile> profilesOut);
+    /** Returns the id of the task at an index, without creating the task */
+    public int getTaskId(int index);
+    /** Returns the index of the task with an id, or -1 if there is none */
+    public int indexOfTaskId(int taskId);
+}
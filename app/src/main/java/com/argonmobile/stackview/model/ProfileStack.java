@@ -2,13 +2,21 @@ package com.argonmobile.stackview.model;
 
 
 import android.graphics.Color;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import com.argonmobile.stackview.Constants;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 /**
@@ -20,17 +28,25 @@ interface TaskFilter {
 }
 
 /**
- * A list of filtered tasks.
+ * A list of filtered tasks.  Single adds and removes are applied incrementally, and the mapping
+ * of tasks to filtered indices is only brought up to date when it is next read.  The list of
+ * filtered tasks is copied on write while it is shared with a snapshot handed out to a reader.
+ * Changes that rebuild the list always fill a new one, so the stack can diff against the previous
+ * list without taking a snapshot, and without making the next single add or remove copy the list.
  */
 class FilteredTaskList {
     ArrayList<Profile> mTasks = new ArrayList<Profile>();
     ArrayList<Profile> mFilteredTasks = new ArrayList<Profile>();
-    HashMap<Profile.TaskKey, Integer> mTaskIndices = new HashMap<Profile.TaskKey, Integer>();
+    TaskIdIndex mTaskIndices = new TaskIdIndex();
+    // The number of leading filtered tasks whose entries in mTaskIndices are up to date
+    int mTaskIndicesValidCount;
     TaskFilter mFilter;
+    // The snapshot sharing mFilteredTasks, if any
+    ProfileStackSnapshot mSnapshot;
 
     /** Sets the task filter, saving the current touch state */
     boolean setFilter(TaskFilter filter) {
-        ArrayList<Profile> prevFilteredTasks = new ArrayList<Profile>(mFilteredTasks);
+        ArrayList<Profile> prevFilteredTasks = mFilteredTasks;
         mFilter = filter;
         updateFilteredTasks();
         if (!prevFilteredTasks.equals(mFilteredTasks)) {
@@ -42,16 +58,59 @@ class FilteredTaskList {
         }
     }
 
+    /** Sets the task filter, even if it does not change the filtered tasks */
+    void resetFilter(TaskFilter filter) {
+        mFilter = filter;
+        updateFilteredTasks();
+    }
+
+    /**
+     * Sets a task filter that only accepts tasks the current filter accepts, so that only the
+     * filtered tasks have to be checked again.  The filter is passed the filtered task indices.
+     */
+    void narrowFilter(TaskFilter filter) {
+        mFilter = filter;
+        ArrayList<Profile> prevFilteredTasks = mFilteredTasks;
+        int taskCount = prevFilteredTasks.size();
+        mFilteredTasks = new ArrayList<Profile>(taskCount);
+        mSnapshot = null;
+        for (int i = 0; i < taskCount; i++) {
+            Profile t = prevFilteredTasks.get(i);
+            if (filter.acceptTask(t, i)) {
+                mFilteredTasks.add(t);
+            } else {
+                // The tasks after this one shift down, so their indices are fixed up when next read
+                mTaskIndices.remove(t.key.id);
+                mTaskIndicesValidCount = Math.min(mTaskIndicesValidCount, mFilteredTasks.size());
+            }
+        }
+    }
+
     /** Removes the task filter and returns the previous touch state */
     void removeFilter() {
         mFilter = null;
         updateFilteredTasks();
     }
 
-    /** Adds a new task to the task list */
-    void add(Profile t) {
+    /**
+     * Adds a new task to the task list, returning the change to the filtered list or null if the
+     * task was filtered out.
+     */
+    ProfileStack.TaskListChange add(Profile t) {
         mTasks.add(t);
-        updateFilteredTasks();
+        if (mFilter != null && !mFilter.acceptTask(t, mTasks.size() - 1)) {
+            return null;
+        }
+
+        // Appending never shifts the existing tasks, so only the new entry needs an index
+        int index = mFilteredTasks.size();
+        ensureFilteredTasksWritable();
+        mFilteredTasks.add(t);
+        mTaskIndices.put(t.key.id, index);
+        if (mTaskIndicesValidCount == index) {
+            mTaskIndicesValidCount++;
+        }
+        return ProfileStack.TaskListChange.insert(t, index);
     }
 
     /** Sets the list of tasks */
@@ -61,22 +120,52 @@ class FilteredTaskList {
         updateFilteredTasks();
     }
 
-    /** Removes a task from the base list only if it is in the filtered list */
-    boolean remove(Profile t) {
-        if (mFilteredTasks.contains(t)) {
-            boolean removed = mTasks.remove(t);
-            updateFilteredTasks();
-            return removed;
+    /**
+     * Removes a task from the base list only if it is in the filtered list, returning the change
+     * to the filtered list or null if nothing was removed.
+     */
+    ProfileStack.TaskListChange remove(Profile t) {
+        int index = indexOf(t);
+        if (index < 0) {
+            return null;
+        }
+
+        // The tasks after the removed one are now off by one, defer fixing them up until the next
+        // lookup that needs them
+        ensureFilteredTasksWritable();
+        Profile removed = mFilteredTasks.remove(index);
+        mTaskIndices.remove(removed.key.id);
+        mTaskIndicesValidCount = Math.min(mTaskIndicesValidCount, index);
+        // Remove the stored task by position, as t may be another instance with the same id.  The
+        // base list is in the same order as the filtered list when there is no filter
+        mTasks.remove(mFilter == null ? index : indexOfBaseTask(removed));
+        return ProfileStack.TaskListChange.remove(removed, index);
+    }
+
+    /** Returns the index of this stored task in the base list */
+    private int indexOfBaseTask(Profile t) {
+        int taskCount = mTasks.size();
+        for (int i = 0; i < taskCount; i++) {
+            if (mTasks.get(i) == t) {
+                return i;
+            }
         }
-        return false;
+        return -1;
     }
 
     /** Returns the index of this task in the list of filtered tasks */
     int indexOf(Profile t) {
-        if (mTaskIndices.containsKey(t.key)) {
-            return mTaskIndices.get(t.key);
+        return indexOfTaskId(t.key.id);
+    }
+
+    /** Returns the index of the task with the specified id in the list of filtered tasks */
+    int indexOfTaskId(int taskId) {
+        int index = mTaskIndices.get(taskId, -1);
+        if (index >= mTaskIndicesValidCount) {
+            updateFilteredTaskIndices(mTaskIndicesValidCount);
+            index = mTaskIndices.get(taskId, -1);
         }
-        return -1;
+        return index;
     }
 
     /** Returns the size of the list of filtered tasks */
@@ -86,12 +175,42 @@ class FilteredTaskList {
 
     /** Returns whether the filtered list contains this task */
     boolean contains(Profile t) {
-        return mTaskIndices.containsKey(t.key);
+        return mTaskIndices.containsKey(t.key.id);
+    }
+
+    /** Returns an immutable snapshot of the filtered tasks, sharing the current list */
+    ProfileStackSnapshot snapshot() {
+        if (mSnapshot == null) {
+            mSnapshot = new ProfileStackSnapshot(mFilteredTasks, hasFilter());
+        }
+        return mSnapshot;
+    }
+
+    /**
+     * Returns a snapshot of the filtered tasks before a change that rebuilds them into a new list.
+     * Unlike snapshot(), this does not mark the current list as shared, so the rebuilt list is not
+     * copied on its next write.
+     */
+    ProfileStackSnapshot snapshotBeforeRebuild() {
+        if (mSnapshot != null) {
+            return mSnapshot;
+        }
+        return new ProfileStackSnapshot(mFilteredTasks, hasFilter());
+    }
+
+    /** Detaches the list of filtered tasks from the last snapshot before it is modified */
+    private void ensureFilteredTasksWritable() {
+        if (mSnapshot != null) {
+            mFilteredTasks = new ArrayList<Profile>(mFilteredTasks);
+            mSnapshot = null;
+        }
     }
 
     /** Updates the list of filtered tasks whenever the base task list changes */
     private void updateFilteredTasks() {
-        mFilteredTasks.clear();
+        // Start over with a new list, leaving the previous one as it is for whoever holds on to it
+        mFilteredTasks = new ArrayList<Profile>(mTasks.size());
+        mSnapshot = null;
         if (mFilter != null) {
             int taskCount = mTasks.size();
             for (int i = 0; i < taskCount; i++) {
@@ -103,17 +222,18 @@ class FilteredTaskList {
         } else {
             mFilteredTasks.addAll(mTasks);
         }
-        updateFilteredTaskIndices();
+        mTaskIndices.clear();
+        updateFilteredTaskIndices(0);
     }
 
-    /** Updates the mapping of tasks to indices. */
-    private void updateFilteredTaskIndices() {
-        mTaskIndices.clear();
+    /** Updates the mapping of tasks to indices, starting at the specified filtered index. */
+    private void updateFilteredTaskIndices(int fromIndex) {
         int taskCount = mFilteredTasks.size();
-        for (int i = 0; i < taskCount; i++) {
+        for (int i = fromIndex; i < taskCount; i++) {
             Profile t = mFilteredTasks.get(i);
-            mTaskIndices.put(t.key, i);
+            mTaskIndices.put(t.key.id, i);
         }
+        mTaskIndicesValidCount = taskCount;
     }
 
     /** Returns whether this task list is filtered */
@@ -139,9 +259,47 @@ public class ProfileStack {
         /* Notifies when a task has been removed from the stack */
         public void onStackTaskRemoved(ProfileStack stack, Profile removedTask, Profile newFrontMostTask);
         /** Notifies when the stack was filtered */
-        public void onStackFiltered(ProfileStack newStack, ArrayList<Profile> curTasks, Profile t);
+        public void onStackFiltered(ProfileStack newStack, ProfileStackSnapshot curTasks, Profile t);
         /** Notifies when the stack was un-filtered */
-        public void onStackUnfiltered(ProfileStack newStack, ArrayList<Profile> curTasks);
+        public void onStackUnfiltered(ProfileStack newStack, ProfileStackSnapshot curTasks);
+        /** Notifies of the inserts, removes and moves whenever the filtered tasks change */
+        public void onStackChanged(ProfileStack stack, StackDiff diff);
+    }
+
+    /** A compact record of a single insertion into, removal from or move within the filtered tasks. */
+    public static class TaskListChange {
+        public static final int TYPE_INSERT = 0;
+        public static final int TYPE_REMOVE = 1;
+        public static final int TYPE_MOVE = 2;
+
+        public final int type;
+        public final Profile task;
+        public final int fromIndex; // Index in the filtered tasks before the change, or -1
+        public final int toIndex;   // Index in the filtered tasks after the change, or -1
+
+        TaskListChange(int type, Profile task, int fromIndex, int toIndex) {
+            this.type = type;
+            this.task = task;
+            this.fromIndex = fromIndex;
+            this.toIndex = toIndex;
+        }
+
+        static TaskListChange insert(Profile t, int index) {
+            return new TaskListChange(TYPE_INSERT, t, -1, index);
+        }
+
+        static TaskListChange remove(Profile t, int index) {
+            return new TaskListChange(TYPE_REMOVE, t, index, -1);
+        }
+
+        static TaskListChange move(Profile t, int fromIndex, int toIndex) {
+            return new TaskListChange(TYPE_MOVE, t, fromIndex, toIndex);
+        }
+
+        @Override
+        public String toString() {
+            return "TaskListChange type: " + type + " from: " + fromIndex + " to: " + toIndex;
+        }
     }
 
     /** A pair of indices representing the group and task positions in the stack and group. */
@@ -160,8 +318,203 @@ public class ProfileStack {
     // The task offset to apply to a task id as a group affiliation
     static final int IndividualTaskIdOffset = 1 << 16;
 
+    /**
+     * Collects any number of adds, removes and moves and applies them to the stack with a single
+     * filter pass and a single diff callback.  The stack should not be modified directly while an
+     * editor is open.
+     */
+    public class Editor {
+        ArrayList<Profile> mTasks;
+        // The tasks in mTasks, including the ones marked for removal
+        HashSet<Profile> mTaskSet;
+        // Removals are only marked here, and compacted out of mTasks in one pass when needed
+        HashSet<Profile> mRemovedTasks = new HashSet<Profile>();
+        boolean mChanged;
+
+        Editor() {
+            mTasks = new ArrayList<Profile>(mTaskList.mTasks);
+            mTaskSet = new HashSet<Profile>(mTasks);
+        }
+
+        /** Adds a new task to the front of the stack, unless it is already in the stack */
+        public Editor addTask(Profile t) {
+            if (mRemovedTasks.contains(t)) {
+                // Drop the old entry first so that the task is not in the list twice
+                compactRemovedTasks();
+            } else if (mTaskSet.contains(t)) {
+                return this;
+            }
+            mTasks.add(t);
+            mTaskSet.add(t);
+            mChanged = true;
+            return this;
+        }
+
+        /** Removes a task if it is in the stack */
+        public Editor removeTask(Profile t) {
+            if (mTaskSet.contains(t) && mRemovedTasks.add(t)) {
+                mChanged = true;
+            }
+            return this;
+        }
+
+        /** Moves a task to the specified index in the unfiltered task list */
+        public Editor moveTask(Profile t, int toIndex) {
+            compactRemovedTasks();
+            if (mTasks.remove(t)) {
+                mTasks.add(Math.max(0, Math.min(toIndex, mTasks.size())), t);
+                mChanged = true;
+            }
+            return this;
+        }
+
+        /** Replaces all the tasks in the stack */
+        public Editor setTasks(List<Profile> tasks) {
+            mTasks.clear();
+            mTasks.addAll(tasks);
+            mTaskSet.clear();
+            mTaskSet.addAll(tasks);
+            mRemovedTasks.clear();
+            mChanged = true;
+            return this;
+        }
+
+        /** Applies all the changes to the stack */
+        public void commit() {
+            if (mBatchEditor == this) {
+                mBatchEditor = null;
+            }
+            if (!mChanged) {
+                return;
+            }
+            compactRemovedTasks();
+            ProfileStackSnapshot prevTasks = mTaskList.snapshotBeforeRebuild();
+            // Moves can reorder tasks within their groups, so regroup everything in one pass
+            clearGroups();
+            updateLabelIndex();
+            mTaskList.set(mTasks);
+            createGroups();
+            mChanged = false;
+            if (mCb != null) {
+                StackDiff diff = StackDiff.compute(prevTasks.getTasks(), mTaskList.getTasks());
+                if (!diff.isEmpty()) {
+                    mCb.onStackChanged(ProfileStack.this, diff);
+                }
+            }
+        }
+
+        /**
+         * Indexes the labels of the tasks this batch adds to the stack and drops the ones of the
+         * tasks it removes, leaving the tasks that stay in the stack as they are indexed.
+         */
+        private void updateLabelIndex() {
+            ArrayList<Profile> prevTasks = mTaskList.mTasks;
+            HashSet<Profile> prevTaskSet = new HashSet<Profile>(prevTasks);
+            int taskCount = prevTasks.size();
+            for (int i = 0; i < taskCount; i++) {
+                Profile t = prevTasks.get(i);
+                if (!mTaskSet.contains(t)) {
+                    mLabelIndex.remove(t);
+                }
+            }
+            taskCount = mTasks.size();
+            for (int i = 0; i < taskCount; i++) {
+                Profile t = mTasks.get(i);
+                if (!prevTaskSet.contains(t)) {
+                    mLabelIndex.add(t);
+                }
+            }
+        }
+
+        /** Drops all the tasks marked for removal from the working list */
+        private void compactRemovedTasks() {
+            if (mRemovedTasks.isEmpty()) {
+                return;
+            }
+            int taskCount = mTasks.size();
+            int writeIndex = 0;
+            for (int i = 0; i < taskCount; i++) {
+                Profile t = mTasks.get(i);
+                if (!mRemovedTasks.contains(t)) {
+                    mTasks.set(writeIndex++, t);
+                }
+            }
+            mTasks.subList(writeIndex, taskCount).clear();
+            mTaskSet.removeAll(mRemovedTasks);
+            mRemovedTasks.clear();
+        }
+    }
+
+    /** A change posted to the stack from any thread, to be applied on the next frame. */
+    static class PendingChange {
+        static final int TYPE_ADD = 0;
+        static final int TYPE_REMOVE = 1;
+        static final int TYPE_MOVE = 2;
+        static final int TYPE_SET = 3;
+
+        final int type;
+        final Profile task;
+        final int toIndex;
+        final List<Profile> tasks;
+
+        PendingChange(int type, Profile task, int toIndex, List<Profile> tasks) {
+            this.type = type;
+            this.task = task;
+            this.toIndex = toIndex;
+            this.tasks = tasks;
+        }
+
+        /** Applies this change to a batch */
+        void applyTo(Editor editor) {
+            switch (type) {
+                case TYPE_ADD:
+                    editor.addTask(task);
+                    break;
+                case TYPE_REMOVE:
+                    editor.removeTask(task);
+                    break;
+                case TYPE_MOVE:
+                    editor.moveTask(task, toIndex);
+                    break;
+                case TYPE_SET:
+                    editor.setTasks(tasks);
+                    break;
+            }
+        }
+    }
+
     FilteredTaskList mTaskList = new FilteredTaskList();
     TaskStackCallbacks mCb;
+    Editor mBatchEditor;
+
+    // The changes posted from any thread, and whether a frame has been scheduled to apply them
+    final ConcurrentLinkedQueue<PendingChange> mPendingChanges =
+            new ConcurrentLinkedQueue<PendingChange>();
+    final AtomicBoolean mApplyPendingChangesScheduled = new AtomicBoolean();
+    static Handler sMainHandler;
+
+    // Schedules the frame callback, which has to be done from the UI thread
+    final Runnable mScheduleApplyPendingChangesRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(mApplyPendingChangesFrameCallback);
+        }
+    };
+    final Choreographer.FrameCallback mApplyPendingChangesFrameCallback =
+            new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            applyPendingChanges();
+        }
+    };
+
+    HashMap<Integer, TaskGrouping> mAffinitiesGroups = new HashMap<Integer, TaskGrouping>();
+    TaskLabelIndex mLabelIndex = new TaskLabelIndex();
+
+    // When paged, mTaskList only holds the window of tasks starting at mWindowStart
+    ProfileDataSource mDataSource;
+    int mDataSourceCount;
+    int mWindowStart;
 
     /** Sets the callbacks for this task stack */
     public void setCallbacks(TaskStackCallbacks cb) {
@@ -170,9 +523,15 @@ public class ProfileStack {
 
     /** Adds a new task */
     public void addTask(Profile t) {
-        mTaskList.add(t);
+        // Index the label first, so that an active label filter can accept the task
+        mLabelIndex.add(t);
+        TaskListChange change = mTaskList.add(t);
+        addTaskToGroup(t);
         if (mCb != null) {
             mCb.onStackTaskAdded(this, t);
+            if (change != null) {
+                mCb.onStackChanged(this, StackDiff.of(change));
+            }
         }
     }
 
@@ -180,49 +539,186 @@ public class ProfileStack {
     public void removeTask(Profile t) {
         if (mTaskList.contains(t)) {
             // Remove the task from the list
-            mTaskList.remove(t);
+            TaskListChange change = mTaskList.remove(t);
+            // Work with the stored task, which may be another instance than the one passed in
+            t = change.task;
+            removeTaskFromGroup(t);
+            mLabelIndex.remove(t);
 
             Profile newFrontMostTask = getFrontMostTask();
             if (mCb != null) {
                 // Notify that a task has been removed
                 mCb.onStackTaskRemoved(this, t, newFrontMostTask);
+                mCb.onStackChanged(this, StackDiff.of(change));
             }
         }
     }
 
-    /** Sets a few tasks in one go */
-    public void setTasks(List<Profile> tasks) {
-        ArrayList<Profile> taskList = mTaskList.getTasks();
-        int taskCount = taskList.size();
+    /** Returns the group with the specified affiliation, if there is one. */
+    public TaskGrouping getGroupWithAffiliation(int affiliation) {
+        return mAffinitiesGroups.get(affiliation);
+    }
+
+    /** Returns the number of groups in this stack */
+    public int getGroupCount() {
+        return mAffinitiesGroups.size();
+    }
+
+    /** Returns the affiliation a task is grouped by.  Unaffiliated tasks get a group of their own. */
+    static int getTaskAffiliation(Profile t) {
+        return (t.taskAffiliation > 0) ? t.taskAffiliation : IndividualTaskIdOffset + t.key.id;
+    }
+
+    /**
+     * Adds a task to the front of the group for its affiliation, creating the group if needed.  A
+     * task that is already grouped leaves its group first.
+     */
+    private void addTaskToGroup(Profile t) {
+        removeTaskFromGroup(t);
+        int affiliation = getTaskAffiliation(t);
+        TaskGrouping group = mAffinitiesGroups.get(affiliation);
+        if (group == null) {
+            group = new TaskGrouping(affiliation);
+            mAffinitiesGroups.put(affiliation, group);
+        }
+        group.addTask(t);
+    }
+
+    /** Removes a task from its group, dropping the group once it is empty */
+    private void removeTaskFromGroup(Profile t) {
+        TaskGrouping group = t.group;
+        if (group == null || mAffinitiesGroups.get(group.affiliation) != group) {
+            // The task is not grouped in this stack, and leaves any other group when it is added
+            // to one of ours
+            return;
+        }
+        group.removeTask(t);
+        if (group.getTaskCount() == 0) {
+            mAffinitiesGroups.remove(group.affiliation);
+        }
+    }
+
+    /** Drops all the groups, detaching the tasks currently in the stack from them */
+    private void clearGroups() {
+        ArrayList<Profile> tasks = mTaskList.mTasks;
+        int taskCount = tasks.size();
         for (int i = 0; i < taskCount; i++) {
-            Profile t = taskList.get(i);
-            // Remove the task from the list
-            mTaskList.remove(t);
+            tasks.get(i).setGroup(null);
+        }
+        mAffinitiesGroups.clear();
+    }
 
-            if (mCb != null) {
-                // Notify that a task has been removed
-                mCb.onStackTaskRemoved(this, t, null);
-            }
+    /** Groups all the tasks in the stack, in stack order */
+    private void createGroups() {
+        ArrayList<Profile> tasks = mTaskList.mTasks;
+        int taskCount = tasks.size();
+        for (int i = 0; i < taskCount; i++) {
+            addTaskToGroup(tasks.get(i));
         }
-        mTaskList.set(tasks);
-        for (Profile t : tasks) {
-            if (mCb != null) {
-                mCb.onStackTaskAdded(this, t);
+    }
+
+    /******** Posting changes from any thread ********/
+
+    /** Posts a task to be added on the next frame.  This can be called from any thread. */
+    public void postAddTask(Profile t) {
+        postChange(new PendingChange(PendingChange.TYPE_ADD, t, -1, null));
+    }
+
+    /** Posts a task to be removed on the next frame.  This can be called from any thread. */
+    public void postRemoveTask(Profile t) {
+        postChange(new PendingChange(PendingChange.TYPE_REMOVE, t, -1, null));
+    }
+
+    /** Posts a task to be moved on the next frame.  This can be called from any thread. */
+    public void postMoveTask(Profile t, int toIndex) {
+        postChange(new PendingChange(PendingChange.TYPE_MOVE, t, toIndex, null));
+    }
+
+    /** Posts the tasks to be replaced on the next frame.  This can be called from any thread. */
+    public void postSetTasks(List<Profile> tasks) {
+        postChange(new PendingChange(PendingChange.TYPE_SET, null, -1,
+                new ArrayList<Profile>(tasks)));
+    }
+
+    /** Queues a change, and schedules a frame to apply it unless one is already scheduled */
+    private void postChange(PendingChange change) {
+        mPendingChanges.offer(change);
+        if (mApplyPendingChangesScheduled.compareAndSet(false, true)) {
+            synchronized (ProfileStack.class) {
+                if (sMainHandler == null) {
+                    sMainHandler = new Handler(Looper.getMainLooper());
+                }
             }
+            sMainHandler.post(mScheduleApplyPendingChangesRunnable);
+        }
+    }
+
+    /**
+     * Applies all the posted changes as a single batch, with a single onStackChanged() callback.
+     * This is called once per frame while there are posted changes, and must be called on the UI
+     * thread.  If a batch is already open, the changes are added to it instead.
+     */
+    public void applyPendingChanges() {
+        // Clear the flag first, so that a change posted while draining schedules another frame
+        mApplyPendingChangesScheduled.set(false);
+        PendingChange change = mPendingChanges.poll();
+        if (change == null) {
+            return;
+        }
+        Editor editor = (mBatchEditor != null) ? mBatchEditor : new Editor();
+        while (change != null) {
+            change.applyTo(editor);
+            change = mPendingChanges.poll();
+        }
+        if (editor != mBatchEditor) {
+            editor.commit();
         }
     }
 
+    /** Sets a few tasks in one go */
+    public void setTasks(List<Profile> tasks) {
+        new Editor().setTasks(tasks).commit();
+    }
+
+    /**
+     * Sets the tasks from the rows of a table, in row order.  The table backs the stack as its data
+     * source, so only the rows in the window are bound to Profiles, as the window moves.
+     */
+    public void setTasks(ProfileTable table) {
+        setDataSource(table);
+    }
+
+    /**
+     * Starts a batch of changes to this stack, which are applied when the returned editor is
+     * committed.
+     */
+    public Editor beginBatch() {
+        if (mBatchEditor != null) {
+            throw new IllegalStateException("A batch is already in progress on this stack");
+        }
+        mBatchEditor = new Editor();
+        return mBatchEditor;
+    }
+
     /** Gets the front task */
     public Profile getFrontMostTask() {
         if (mTaskList.size() == 0) return null;
         return mTaskList.getTasks().get(mTaskList.size() - 1);
     }
 
-    /** Gets the tasks */
+    /** Gets the tasks.  This is the live list, use snapshot() to read the tasks off the UI thread */
     public ArrayList<Profile> getTasks() {
         return mTaskList.getTasks();
     }
 
+    /**
+     * Returns an immutable snapshot of the current tasks.  This is cheap, it shares the current
+     * list until the stack is next modified.
+     */
+    public ProfileStackSnapshot snapshot() {
+        return mTaskList.snapshot();
+    }
+
     /** Gets the number of tasks */
     public int getTaskCount() {
         return mTaskList.size();
@@ -235,22 +731,119 @@ public class ProfileStack {
 
     /** Finds the task with the specified task id. */
     public Profile findTaskWithId(int taskId) {
-        ArrayList<Profile> tasks = mTaskList.getTasks();
-        int taskCount = tasks.size();
-        for (int i = 0; i < taskCount; i++) {
-            Profile task = tasks.get(i);
-            if (task.key.id == taskId) {
-                return task;
+        int index = mTaskList.indexOfTaskId(taskId);
+        return (index < 0) ? null : mTaskList.getTasks().get(index);
+    }
+
+    /**
+     * Returns the index of the task with the specified task id, which for a paged stack is its
+     * index in the data source, or -1 if there is none.
+     */
+    public int findTaskIndexWithId(int taskId) {
+        return (mDataSource != null) ? mDataSource.indexOfTaskId(taskId) :
+                mTaskList.indexOfTaskId(taskId);
+    }
+
+    /******** Paging ********/
+
+    /**
+     * Backs this stack with a data source, or stops paging if it is null.  A paged stack only holds
+     * a window of the tasks around the visible ones, which is moved with ensureWindow(), and the
+     * indices of getTasks() are relative to getWindowStart().  Paged stacks are not grouped,
+     * indexed or filtered, and should only be changed through their data source.
+     */
+    public void setDataSource(ProfileDataSource dataSource) {
+        mDataSource = dataSource;
+        notifyDataSourceChanged();
+    }
+
+    /** Drops the window after the tasks of the data source changed, to be reloaded when needed */
+    public void notifyDataSourceChanged() {
+        ProfileStackSnapshot prevTasks = mTaskList.snapshotBeforeRebuild();
+        mDataSourceCount = (mDataSource != null) ? mDataSource.getCount() : 0;
+        mWindowStart = 0;
+        clearGroups();
+        mLabelIndex = new TaskLabelIndex();
+        mTaskList.mFilter = null;
+        mTaskList.set(new ArrayList<Profile>());
+        if (mCb != null) {
+            // Notify even if no tasks were loaded, since the total number of tasks has changed
+            mCb.onStackChanged(this, StackDiff.compute(prevTasks.getTasks(), mTaskList.getTasks()));
+        }
+    }
+
+    /** Returns whether this stack is backed by a data source */
+    public boolean isPaged() {
+        return (mDataSource != null);
+    }
+
+    /** Returns the number of tasks in the stack, including the ones outside of the window */
+    public int getTotalTaskCount() {
+        return (mDataSource != null) ? mDataSourceCount : mTaskList.size();
+    }
+
+    /** Returns the index in the data source of the first task in the window */
+    public int getWindowStart() {
+        return mWindowStart;
+    }
+
+    /**
+     * Makes sure the tasks in a range of the data source are in the window, loading whole pages
+     * around them and dropping the rest.  The tasks already in the window are kept, so their views
+     * stay bound.  No callbacks are made, the views of the dropped tasks are expected to be
+     * returned to the pool when the views are next synchronized.  Returns whether the window moved.
+     */
+    public boolean ensureWindow(int firstIndex, int lastIndex) {
+        if (mDataSource == null) {
+            return false;
+        }
+        firstIndex = Math.max(0, firstIndex);
+        lastIndex = Math.min(mDataSourceCount - 1, lastIndex);
+        int windowEnd = mWindowStart + mTaskList.size();
+        if (lastIndex < firstIndex || (mWindowStart <= firstIndex && lastIndex < windowEnd)) {
+            return false;
+        }
+
+        // Center the requested pages in the window
+        int pageSize = Constants.Values.ProfileStack.PageSize;
+        int windowPageCount = Constants.Values.ProfileStack.WindowPageCount;
+        int firstPage = firstIndex / pageSize;
+        int lastPage = lastIndex / pageSize;
+        int pagesBefore = Math.max(0, (windowPageCount - (lastPage - firstPage + 1)) / 2);
+        int newStartPage = Math.max(0, firstPage - pagesBefore);
+        int newEndPage = Math.min((mDataSourceCount - 1) / pageSize,
+                Math.max(lastPage, newStartPage + windowPageCount - 1));
+        int newStart = newStartPage * pageSize;
+        int newEnd = Math.min(mDataSourceCount, (newEndPage + 1) * pageSize);
+
+        // Only load the tasks that are not already in the window
+        ArrayList<Profile> prevWindow = mTaskList.mTasks;
+        ArrayList<Profile> window = new ArrayList<Profile>(newEnd - newStart);
+        int overlapStart = Math.max(newStart, mWindowStart);
+        int overlapEnd = Math.min(newEnd, windowEnd);
+        if (overlapStart < overlapEnd) {
+            if (newStart < overlapStart) {
+                mDataSource.loadPage(newStart, overlapStart - newStart, window);
+            }
+            window.addAll(prevWindow.subList(overlapStart - mWindowStart,
+                    overlapEnd - mWindowStart));
+            if (overlapEnd < newEnd) {
+                mDataSource.loadPage(overlapEnd, newEnd - overlapEnd, window);
             }
+        } else {
+            mDataSource.loadPage(newStart, newEnd - newStart, window);
         }
-        return null;
+        mWindowStart = newStart;
+        mTaskList.set(window);
+        return true;
     }
 
     /******** Filtering ********/
 
     /** Filters the stack into tasks similar to the one specified */
     public void filterTasks(final Profile t) {
-        ArrayList<Profile> oldStack = new ArrayList<Profile>(mTaskList.getTasks());
+        if (mDataSource != null) return;
+        ProfileStackSnapshot oldStack = mTaskList.snapshotBeforeRebuild();
 
         // Set the task list filter
         boolean filtered = mTaskList.setFilter(new TaskFilter() {
@@ -262,17 +855,48 @@ public class ProfileStack {
         });
         if (filtered && mCb != null) {
             mCb.onStackFiltered(this, oldStack, t);
+            mCb.onStackChanged(this, StackDiff.compute(oldStack.getTasks(), mTaskList.getTasks()));
+        }
+    }
+
+    /**
+     * Filters the stack to the tasks whose activity labels contain a query, ignoring case, or
+     * unfilters it if the query is empty.  When the query extends the previous one, only the tasks
+     * that matched the previous query are checked again.
+     */
+    public void filterTasksByLabel(String query) {
+        if (mDataSource != null) return;
+        if (query == null || query.isEmpty()) {
+            if (mTaskList.hasFilter()) {
+                unfilterTasks();
+            }
+            return;
+        }
+        ProfileStackSnapshot oldStack = mTaskList.snapshotBeforeRebuild();
+
+        TaskLabelIndex.LabelFilter filter = mLabelIndex.newFilter(query);
+        if (filter.narrows(mTaskList.mFilter)) {
+            mTaskList.narrowFilter(filter);
+        } else {
+            mTaskList.resetFilter(filter);
+        }
+        if (mCb != null) {
+            StackDiff diff = StackDiff.compute(oldStack.getTasks(), mTaskList.getTasks());
+            if (!diff.isEmpty()) {
+                mCb.onStackChanged(this, diff);
+            }
         }
     }
 
     /** Unfilters the current stack */
     public void unfilterTasks() {
-        ArrayList<Profile> oldStack = new ArrayList<Profile>(mTaskList.getTasks());
+        ProfileStackSnapshot oldStack = mTaskList.snapshotBeforeRebuild();
 
         // Unset the filter, then update the virtual scroll
         mTaskList.removeFilter();
         if (mCb != null) {
             mCb.onStackUnfiltered(this, oldStack);
+            mCb.onStackChanged(this, StackDiff.compute(oldStack.getTasks(), mTaskList.getTasks()));
         }
     }
 
@@ -0,0 +1,76 @@
+package com.argonmobile.stackview.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable view of the filtered tasks of a stack at some point in time.  Taking a snapshot
+ * does not copy anything: it shares the stack's current list, and the stack switches to a copy of
+ * its own the next time it changes.  Snapshots can be read from any thread without locking, but
+ * only the list structure is frozen, the tasks themselves are still the live objects.
+ */
+public class ProfileStackSnapshot {
+
+    final ArrayList<Profile> mTasks;
+    final List<Profile> mReadOnlyTasks;
+    final boolean mFiltered;
+
+    // Lazily built on the first lookup by task id
+    TaskIdIndex mTaskIndices;
+
+    ProfileStackSnapshot(ArrayList<Profile> tasks, boolean filtered) {
+        mTasks = tasks;
+        mReadOnlyTasks = Collections.unmodifiableList(tasks);
+        mFiltered = filtered;
+    }
+
+    /** Gets the tasks */
+    public List<Profile> getTasks() {
+        return mReadOnlyTasks;
+    }
+
+    /** Gets the number of tasks */
+    public int getTaskCount() {
+        return mTasks.size();
+    }
+
+    /** Gets the task at the specified index */
+    public Profile getTask(int index) {
+        return mTasks.get(index);
+    }
+
+    /** Gets the front task */
+    public Profile getFrontMostTask() {
+        if (mTasks.isEmpty()) return null;
+        return mTasks.get(mTasks.size() - 1);
+    }
+
+    /** Returns the index of this task in the snapshot */
+    public int indexOfTask(Profile t) {
+        return getTaskIndices().get(t.key.id, -1);
+    }
+
+    /** Finds the task with the specified task id. */
+    public Profile findTaskWithId(int taskId) {
+        int index = getTaskIndices().get(taskId, -1);
+        return (index < 0) ? null : mTasks.get(index);
+    }
+
+    /** Returns whether the stack was filtered when this snapshot was taken */
+    public boolean isFiltered() {
+        return mFiltered;
+    }
+
+    private synchronized TaskIdIndex getTaskIndices() {
+        if (mTaskIndices == null) {
+            int taskCount = mTasks.size();
+            TaskIdIndex indices = new TaskIdIndex(taskCount);
+            for (int i = 0; i < taskCount; i++) {
+                indices.put(mTasks.get(i).key.id, i);
+            }
+            mTaskIndices = indices;
+        }
+        return mTaskIndices;
+    }
+}
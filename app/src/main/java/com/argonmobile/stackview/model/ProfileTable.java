@@ -0,0 +1,176 @@
+package com.argonmobile.stackview.model;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A compact, column oriented store of task data for very large stacks.  Each row takes a few ints
+ * and a bit, labels are pooled so that repeated labels are only stored once, and no per-row objects
+ * are allocated until a Profile is requested for that row.
+ *
+ * A row takes 12 bytes in the columns and, as the id index keeps between two and four 9 byte slots
+ * per entry, another 18 to 36 bytes in mRowIndices: about 30 to 48 bytes in all, plus its share of
+ * the label pool.  Columns that grew from a smaller table can hold up to twice their row count.
+ */
+public class ProfileTable implements ProfileDataSource {
+
+    static final int MinCapacity = 16;
+    static final int NoLabel = -1;
+
+    int mRowCount;
+    int[] mIds;
+    int[] mAffiliations;
+    int[] mLabelIndices;
+    BitSet mLaunchTargets = new BitSet();
+
+    // The pool of distinct labels, referenced by index from mLabelIndices
+    String[] mLabelPool = new String[MinCapacity];
+    int mLabelPoolSize;
+    HashMap<String, Integer> mLabelPoolIndices = new HashMap<String, Integer>();
+
+    TaskIdIndex mRowIndices;
+
+    public ProfileTable() {
+        this(MinCapacity);
+    }
+
+    public ProfileTable(int expectedRowCount) {
+        int capacity = Math.max(MinCapacity, expectedRowCount);
+        mIds = new int[capacity];
+        mAffiliations = new int[capacity];
+        mLabelIndices = new int[capacity];
+        mRowIndices = new TaskIdIndex(expectedRowCount);
+    }
+
+    /** Appends a row to the table, returning its index */
+    public int addRow(int id, int affiliation, String label, boolean isLaunchTarget) {
+        if (mRowIndices.containsKey(id)) {
+            throw new IllegalArgumentException("A row with task id " + id + " already exists");
+        }
+        if (mRowCount == mIds.length) {
+            int capacity = mRowCount * 2;
+            mIds = Arrays.copyOf(mIds, capacity);
+            mAffiliations = Arrays.copyOf(mAffiliations, capacity);
+            mLabelIndices = Arrays.copyOf(mLabelIndices, capacity);
+        }
+        int row = mRowCount++;
+        mIds[row] = id;
+        mAffiliations[row] = affiliation;
+        mLabelIndices[row] = poolLabel(label);
+        mLaunchTargets.set(row, isLaunchTarget);
+        mRowIndices.put(id, row);
+        return row;
+    }
+
+    /** Appends a row holding the data of a task, returning its index */
+    public int addRow(Profile t) {
+        return addRow(t.key.id, t.taskAffiliation, t.activityLabel, t.isLaunchTarget);
+    }
+
+    /** Returns the number of rows */
+    public int getRowCount() {
+        return mRowCount;
+    }
+
+    /** Returns the row of the task with the specified id, or -1 if there is none */
+    public int findRowWithId(int taskId) {
+        return mRowIndices.get(taskId, -1);
+    }
+
+    /** Returns the task id in a row */
+    public int getId(int row) {
+        checkRow(row);
+        return mIds[row];
+    }
+
+    /** Returns the task affiliation in a row */
+    public int getAffiliation(int row) {
+        checkRow(row);
+        return mAffiliations[row];
+    }
+
+    /** Returns the activity label in a row */
+    public String getLabel(int row) {
+        checkRow(row);
+        int labelIndex = mLabelIndices[row];
+        return (labelIndex == NoLabel) ? null : mLabelPool[labelIndex];
+    }
+
+    /** Returns whether the task in a row is a launch target */
+    public boolean isLaunchTarget(int row) {
+        checkRow(row);
+        return mLaunchTargets.get(row);
+    }
+
+    /**
+     * Returns a new Profile for a row.  The label is shared with the pool, and the thumbnail is
+     * left to be loaded.
+     */
+    public Profile getProfile(int row) {
+        checkRow(row);
+        Profile t = new Profile();
+        t.key.id = mIds[row];
+        t.taskAffiliation = mAffiliations[row];
+        t.activityLabel = getLabel(row);
+        t.isLaunchTarget = mLaunchTargets.get(row);
+        return t;
+    }
+
+    @Override
+    public int getCount() {
+        return mRowCount;
+    }
+
+    @Override
+    public int getTaskId(int index) {
+        return getId(index);
+    }
+
+    @Override
+    public int indexOfTaskId(int taskId) {
+        return findRowWithId(taskId);
+    }
+
+    @Override
+    public void loadPage(int start, int count, List<Profile> profilesOut) {
+        int end = Math.min(start + count, mRowCount);
+        for (int row = start; row < end; row++) {
+            profilesOut.add(getProfile(row));
+        }
+    }
+
+    /** Removes all the rows, keeping the allocated columns */
+    public void clear() {
+        mRowCount = 0;
+        mLaunchTargets.clear();
+        Arrays.fill(mLabelPool, 0, mLabelPoolSize, null);
+        mLabelPoolSize = 0;
+        mLabelPoolIndices.clear();
+        mRowIndices.clear();
+    }
+
+    /** Returns the index of a label in the pool, adding it if needed */
+    private int poolLabel(String label) {
+        if (label == null) {
+            return NoLabel;
+        }
+        Integer labelIndex = mLabelPoolIndices.get(label);
+        if (labelIndex != null) {
+            return labelIndex;
+        }
+        if (mLabelPoolSize == mLabelPool.length) {
+            mLabelPool = Arrays.copyOf(mLabelPool, mLabelPoolSize * 2);
+        }
+        mLabelPool[mLabelPoolSize] = label;
+        mLabelPoolIndices.put(label, mLabelPoolSize);
+        return mLabelPoolSize++;
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= mRowCount) {
+            throw new IndexOutOfBoundsException("Invalid row " + row + ", size is " + mRowCount);
+        }
+    }
+}
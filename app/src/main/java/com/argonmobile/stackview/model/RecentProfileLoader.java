@@ -1,17 +1,227 @@
 package com.argonmobile.stackview.model;
 
+import android.content.ComponentCallbacks2;
+import android.content.ComponentName;
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.argonmobile.stackview.Constants;
+import com.argonmobile.stackview.RecentsConfiguration;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
 
 /**
- * Created by argon on 3/23/15.
+ * Loads the data of the tasks in the background.  A fixed set of loader threads takes the pending
+ * requests nearest to the visible tasks first, and the loaded data is delivered to the tasks on
+ * the main thread.  Loaded thumbnails are kept in a thumbnail cache, and their pixels are reused
+ * through a bitmap pool once nothing shows or caches them.
  */
 public class RecentProfileLoader {
+    static final String TAG = "RecentProfileLoader";
+
+    /** The source of the task thumbnails, which is called on the loader threads */
+    public interface ThumbnailSource {
+        /**
+         * Returns the thumbnail of a task, or null if it has none.  Sources that decode their
+         * thumbnails should sample them down towards the width when they can, a width of zero
+         * or less meaning that it is not known yet.  Thumbnails are scaled to the width after.
+         * The loader owns the returned bitmap and reuses its pixels once it is no longer shown,
+         * so a source should not return the same bitmap twice.
+         */
+        public Bitmap loadThumbnail(Profile.TaskKey key, int width);
+    }
+
+    /** A pending request to load the data of a task */
+    static class TaskLoadRequest {
+        final Profile.TaskKey key;
+        final ComponentName component;
+        final int thumbnailWidth;
+        // The task to bind the thumbnail to, or null if the request only prefetches it into the
+        // cache, only accessed on the main thread
+        Profile task;
+        // The index of the task in its stack, and whether it has been cancelled, guarded by the
+        // request queue
+        int taskIndex;
+        boolean isCancelled;
+        // Whether the thumbnail was loaded from the source rather than the cache, only accessed
+        // by the thread loading the request
+        boolean isThumbnailLoadedFromSource;
+        // The options of the decodes of the request, which are asked to stop when it is cancelled
+        final BitmapFactory.Options decodeOptions = new BitmapFactory.Options();
+
+        TaskLoadRequest(Profile.TaskKey key, ComponentName component, Profile task, int taskIndex,
+                int thumbnailWidth) {
+            this.key = key;
+            this.component = component;
+            this.task = task;
+            this.taskIndex = taskIndex;
+            this.thumbnailWidth = thumbnailWidth;
+        }
+    }
+
+    /** A handle to the load of the data of a task bound to a view */
+    public class TaskLoadHandle {
+        final Profile mTask;
+
+        TaskLoadHandle(Profile task) {
+            mTask = task;
+        }
+
+        /**
+         * Cancels the load if it has not been delivered yet, dropping it from the queue or
+         * interrupting it if it is being loaded
+         */
+        public void cancel() {
+            cancelTaskLoad(mTask);
+        }
+    }
+
+    /** The background thread that loads the requests in priority order */
+    class TaskLoaderThread extends Thread {
+        TaskLoaderThread(int index) {
+            super("Recents-TaskLoader-" + index);
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            while (true) {
+                TaskLoadRequest nextRequest = takeNextRequest(false);
+                if (nextRequest == null) {
+                    // Compact the cold thumbnails while there is nothing to load
+                    if (compactColdThumbnail()) {
+                        continue;
+                    }
+                    nextRequest = takeNextRequest(true);
+                    if (nextRequest == null) {
+                        continue;
+                    }
+                }
+                final TaskLoadRequest request = nextRequest;
+                final Bitmap thumbnail = loadRequest(request);
+                if (thumbnail == null && isCancelled(request)) {
+                    // Interrupted, so there is nothing to deliver
+                    continue;
+                }
+                final TaskBindPayload payload = (thumbnail != null) ?
+                        createBindPayload(thumbnail) : null;
+                if (request.isThumbnailLoadedFromSource) {
+                    // Hold on to the thumbnail until it is written, so it is not reused before
+                    mBitmapPool.acquire(thumbnail);
+                }
+                mMainThreadHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliverRequest(request, thumbnail, payload);
+                    }
+                });
+
+                // Write a newly loaded thumbnail to disk after it has been delivered
+                if (request.isThumbnailLoadedFromSource) {
+                    mThumbnailCache.putOnDisk(request.key, thumbnail);
+                    mBitmapPool.release(thumbnail);
+                }
+            }
+        }
+    }
 
     static RecentProfileLoader sInstance;
 
+    Handler mMainThreadHandler;
+    ThumbnailSource mThumbnailSource;
+    ThumbnailCache mThumbnailCache;
+    ActivityResourceCache mActivityResourceCache;
+    TaskColorCache mTaskColorCache;
+    BitmapPool mBitmapPool;
+    int mMaxNumTasksToLoad;
+    int mThumbnailWidth;
+    // The size of the thumbnail views the bind payloads are prepared for, guarded by mRequestQueue
+    int mThumbnailViewWidth;
+    int mThumbnailViewHeight;
+    TaskLoaderThread[] mLoaderThreads;
+
+    // The requests that have not been taken by a loader thread yet, and the visible range of task
+    // indices they are prioritized against.  All guarded by mRequestQueue.
+    final ArrayList<TaskLoadRequest> mRequestQueue = new ArrayList<TaskLoadRequest>();
+    int mVisibleFrontMostIndex;
+    int mVisibleBackMostIndex;
+    // Whether the visible range moved since an idle loader thread last looked for cold thumbnails
+    boolean mIsCompactionPending;
+    // The range of task indices that the current fling will land on, if there is one
+    boolean mHasFlingTarget;
+    int mFlingFrontMostIndex;
+    int mFlingBackMostIndex;
+
+    // The number of bytes freed from the memory tier, the previews and the bitmap pool by memory
+    // trims
+    long mTrimmedMemoryCacheBytes;
+    long mTrimmedPreviewBytes;
+    long mTrimmedPoolBytes;
+
+    // The bind payloads delivered for the tasks that are not bound yet, by task id, only accessed
+    // on the main thread.  Each holds a reference to its thumbnail in the bitmap pool, so that
+    // the thumbnail is not reused while the payload can still be bound.
+    LruCache<Integer, TaskBindPayload> mBindPayloads = new LruCache<Integer, TaskBindPayload>(
+            Constants.Values.RecentsTaskLoader.BindPayloadCacheSize) {
+        @Override
+        protected void entryRemoved(boolean evicted, Integer key, TaskBindPayload oldValue,
+                TaskBindPayload newValue) {
+            mBitmapPool.release(oldValue.thumbnail);
+        }
+    };
+
+    // The requests that have not been delivered yet, only accessed on the main thread
+    HashMap<Profile.TaskKey, TaskLoadRequest> mActiveRequests =
+            new HashMap<Profile.TaskKey, TaskLoadRequest>();
+
     /** Private Constructor */
     private RecentProfileLoader(Context context) {
+        RecentsConfiguration config = RecentsConfiguration.getInstance();
+        mMainThreadHandler = new Handler();
+        long maxMemory = Runtime.getRuntime().maxMemory();
+        mBitmapPool = new BitmapPool(maxMemory /
+                Constants.Values.RecentsTaskLoader.ThumbnailBitmapPoolHeapDivisor);
+        if (!Constants.DebugFlags.App.DisableBackgroundCache) {
+            int maxMemorySize = (int) (maxMemory /
+                    Constants.Values.RecentsTaskLoader.ThumbnailMemoryCacheHeapDivisor);
+            mThumbnailCache = new ThumbnailCache(mBitmapPool, maxMemorySize,
+                    Constants.Values.RecentsTaskLoader.ThumbnailPreviewWidth,
+                    Constants.Values.RecentsTaskLoader.ThumbnailPreviewCacheSize,
+                    (int) (maxMemory /
+                            Constants.Values.RecentsTaskLoader.ThumbnailCompressedCacheHeapDivisor),
+                    Constants.Values.RecentsTaskLoader.UseRgb565ForOpaqueThumbnails,
+                    new File(context.getCacheDir(),
+                            Constants.Values.RecentsTaskLoader.ThumbnailDiskCacheDirName),
+                    Constants.Values.RecentsTaskLoader.ThumbnailDiskCacheSize);
+        }
+        mActivityResourceCache = new ActivityResourceCache(context.getPackageManager(),
+                Constants.Values.RecentsTaskLoader.ActivityResourceCacheSize);
+        mTaskColorCache = new TaskColorCache(
+                Constants.Values.RecentsTaskLoader.TaskColorCacheSize);
+        mMaxNumTasksToLoad = (config != null && config.maxNumTasksToLoad > 0) ?
+                config.maxNumTasksToLoad : Constants.Values.RecentsTaskLoader.MaxNumTasksToLoad;
+        mLoaderThreads = new TaskLoaderThread[Constants.Values.RecentsTaskLoader.LoaderThreadCount];
+        for (int i = 0; i < mLoaderThreads.length; i++) {
+            mLoaderThreads[i] = new TaskLoaderThread(i);
+            mLoaderThreads[i].start();
+        }
+    }
 
+    /** Creates a loader without the caches that need a context or any loader threads, for tests */
+    RecentProfileLoader(BitmapPool bitmapPool, int maxNumTasksToLoad) {
+        mMainThreadHandler = new Handler();
+        mBitmapPool = bitmapPool;
+        mTaskColorCache = new TaskColorCache(
+                Constants.Values.RecentsTaskLoader.TaskColorCacheSize);
+        mMaxNumTasksToLoad = maxNumTasksToLoad;
+        mLoaderThreads = new TaskLoaderThread[0];
     }
 
     /** Initializes the recents task loader */
@@ -26,4 +236,635 @@ public class RecentProfileLoader {
     public static RecentProfileLoader getInstance() {
         return sInstance;
     }
+
+    /** Sets the source the task thumbnails are loaded from */
+    public void setThumbnailSource(ThumbnailSource source) {
+        mThumbnailSource = source;
+    }
+
+    /** Returns the pool the thumbnail bitmaps are reused from */
+    public BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    /** Returns the cache of the icons and labels of the activities of the tasks */
+    public ActivityResourceCache getActivityResourceCache() {
+        return mActivityResourceCache;
+    }
+
+    /** Returns the thumbnail cache, or null if caching is disabled */
+    public ThumbnailCache getThumbnailCache() {
+        return mThumbnailCache;
+    }
+
+    /**
+     * Sets the size the thumbnails are drawn at, returning whether the width changed.  When it
+     * does, the thumbnails in memory and the pooled bitmaps are dropped, and the tasks that are
+     * bound should be loaded again.
+     */
+    public boolean setThumbnailSize(int width, int height) {
+        synchronized (mRequestQueue) {
+            mThumbnailViewWidth = width;
+            mThumbnailViewHeight = height;
+        }
+        if (width == mThumbnailWidth) {
+            return false;
+        }
+        mThumbnailWidth = width;
+        if (mThumbnailCache != null) {
+            mThumbnailCache.evictAllFromMemory();
+            mThumbnailCache.setThumbnailWidth(width);
+        }
+        // The pooled bitmaps are the size of the old thumbnails, which are no longer asked for
+        mBitmapPool.clear();
+        return true;
+    }
+
+    /**
+     * Trims the thumbnails kept in memory to the level of memory pressure.  The memory tier is
+     * trimmed first, then the previews and compressed thumbnails, and then the bitmap pool, so
+     * that the thumbnails the tier drops into the pool are dropped with it.  The thumbnails on
+     * disk are kept.
+     */
+    public void onTrimMemory(int level) {
+        int maxMemoryCacheSize = (mThumbnailCache != null) ? mThumbnailCache.getMaxMemorySize() : 0;
+        long maxPoolSize = mBitmapPool.getMaxSize();
+        boolean evictAll = false;
+        switch (level) {
+            case ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN:
+                // Nothing is decoded while recents is hidden, so the pool is of no use
+                maxMemoryCacheSize /= 2;
+                maxPoolSize = 0;
+                break;
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE:
+            case ComponentCallbacks2.TRIM_MEMORY_BACKGROUND:
+                maxMemoryCacheSize /= 2;
+                maxPoolSize /= 2;
+                break;
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW:
+            case ComponentCallbacks2.TRIM_MEMORY_MODERATE:
+                maxMemoryCacheSize /= 4;
+                maxPoolSize = 0;
+                break;
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL:
+            case ComponentCallbacks2.TRIM_MEMORY_COMPLETE:
+                maxMemoryCacheSize = 0;
+                maxPoolSize = 0;
+                evictAll = true;
+                break;
+            default:
+                return;
+        }
+
+        int trimmedMemoryCacheBytes = 0;
+        int trimmedPreviewBytes = 0;
+        if (mThumbnailCache != null) {
+            trimmedMemoryCacheBytes = mThumbnailCache.trimMemoryToSize(maxMemoryCacheSize);
+            if (evictAll) {
+                trimmedPreviewBytes = mThumbnailCache.evictAllPreviews();
+                trimmedMemoryCacheBytes += mThumbnailCache.evictAllCompressed();
+            }
+        }
+        mBindPayloads.evictAll();
+        if (evictAll) {
+            mActivityResourceCache.evictAll();
+        }
+        long poolSize = mBitmapPool.getSize();
+        mBitmapPool.trimToSize(maxPoolSize);
+        long trimmedPoolBytes = poolSize - mBitmapPool.getSize();
+        mTrimmedMemoryCacheBytes += trimmedMemoryCacheBytes;
+        mTrimmedPreviewBytes += trimmedPreviewBytes;
+        mTrimmedPoolBytes += trimmedPoolBytes;
+        if (Constants.DebugFlags.App.EnableDebugMode) {
+            Log.d(TAG, "onTrimMemory(" + level + ") freed memory tier: " +
+                    trimmedMemoryCacheBytes + " previews: " + trimmedPreviewBytes + " pool: " +
+                    trimmedPoolBytes + " bytes (total memory tier: " + mTrimmedMemoryCacheBytes +
+                    " previews: " + mTrimmedPreviewBytes + " pool: " + mTrimmedPoolBytes + ")");
+        }
+    }
+
+    /**
+     * Sets the range of task indices that are currently visible, front-most index first.  An idle
+     * loader thread is woken up to compact the thumbnails that are now far from the range.
+     */
+    public void setVisibleRange(int frontMostIndex, int backMostIndex) {
+        synchronized (mRequestQueue) {
+            if (frontMostIndex == mVisibleFrontMostIndex &&
+                    backMostIndex == mVisibleBackMostIndex) {
+                return;
+            }
+            mVisibleFrontMostIndex = frontMostIndex;
+            mVisibleBackMostIndex = backMostIndex;
+            mIsCompactionPending = true;
+            mRequestQueue.notify();
+        }
+    }
+
+    /**
+     * Sets the range of task indices that a fling will land on, front-most index first.  Until
+     * the fling ends, only the requests for the tasks in that range are loaded.
+     */
+    public void setFlingTargetRange(int frontMostIndex, int backMostIndex) {
+        synchronized (mRequestQueue) {
+            mHasFlingTarget = true;
+            mFlingFrontMostIndex = frontMostIndex;
+            mFlingBackMostIndex = backMostIndex;
+            mRequestQueue.notifyAll();
+        }
+    }
+
+    /** Clears the range set for a fling, once the fling has ended or been stopped */
+    public void clearFlingTargetRange() {
+        synchronized (mRequestQueue) {
+            if (mHasFlingTarget) {
+                mHasFlingTarget = false;
+                mRequestQueue.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Loads the data of the tasks at the front of a stack, up to the maximum number of tasks to
+     * load.  The first few are bound right away if their data is cached in memory, so that they
+     * are ready for the first frame, and everything else is queued for the loader threads, front
+     * first.  Nothing is looked up, decoded or computed on the calling main thread.
+     */
+    public void preloadTasks(ProfileStack stack) {
+        ArrayList<Profile> tasks = stack.getTasks();
+        int taskCount = tasks.size();
+        int preloadCount = Math.min(taskCount,
+                Constants.Values.RecentsTaskLoader.PreloadFirstTasksCount);
+        int loadCount = Math.min(taskCount, mMaxNumTasksToLoad);
+        int windowStart = stack.getWindowStart();
+        if (preloadCount > 0) {
+            // The front-most tasks are shown first, until the stack view sets the visible range
+            setVisibleRange(windowStart + taskCount - 1, windowStart + taskCount - preloadCount);
+        }
+        for (int i = 0; i < loadCount; i++) {
+            int taskIndex = taskCount - 1 - i;
+            Profile t = tasks.get(taskIndex);
+            if (isThumbnailLoaded(t.thumbnail) || mActiveRequests.containsKey(t.key)) {
+                continue;
+            }
+            if (i < preloadCount && bindActivityResources(t)) {
+                Bitmap thumbnail = getCachedThumbnail(t);
+                if (thumbnail != null) {
+                    bindThumbnail(t, thumbnail);
+                    continue;
+                }
+            }
+            queueRequest(new TaskLoadRequest(t.key, t.component, t, windowStart + taskIndex,
+                    mThumbnailWidth));
+        }
+    }
+
+    /**
+     * Requests the data of a task to be loaded, notifying the task once it is.  The index of the
+     * task in its stack is used to prioritize the request.  Returns a handle to cancel the load
+     * with, or null if the data was loaded right away.
+     */
+    public TaskLoadHandle loadTaskData(Profile t, int taskIndex) {
+        // A task whose activity resources are not loaded yet is loaded in the background, even if
+        // its thumbnail is at hand
+        if (bindActivityResources(t)) {
+            if (isThumbnailLoaded(t.thumbnail)) {
+                t.notifyTaskDataLoaded(t.thumbnail);
+                return null;
+            }
+            Bitmap thumbnail = getCachedThumbnail(t);
+            if (thumbnail != null) {
+                cancelTaskLoad(t);
+                bindThumbnail(t, thumbnail);
+                return null;
+            }
+        }
+        // Show the preview of the thumbnail while it loads
+        if (mThumbnailCache != null) {
+            Bitmap preview = mThumbnailCache.getPreview(t.key);
+            if (preview != null && preview != t.thumbnailPreview) {
+                t.notifyTaskPreviewLoaded(preview);
+            }
+        }
+        TaskLoadRequest request = mActiveRequests.get(t.key);
+        if (request != null && (request.task == t || request.task == null) &&
+                request.thumbnailWidth == mThumbnailWidth) {
+            // Bind the task to the pending request, which may have been a prefetch
+            request.task = t;
+            synchronized (mRequestQueue) {
+                request.taskIndex = taskIndex;
+            }
+            return new TaskLoadHandle(t);
+        }
+        if (request != null) {
+            cancelRequest(request);
+        }
+        queueRequest(new TaskLoadRequest(t.key, t.component, t, taskIndex, mThumbnailWidth));
+        return new TaskLoadHandle(t);
+    }
+
+    /**
+     * Requests the thumbnail of a task to be loaded into the cache ahead of the task being bound,
+     * unless it is already cached or being loaded.
+     */
+    public void prefetchTaskData(Profile t, int taskIndex) {
+        if (!isThumbnailLoaded(t.thumbnail)) {
+            prefetchThumbnail(t.key, t.component, taskIndex);
+        }
+    }
+
+    /**
+     * Requests the thumbnails of the tasks in a range of indices of a stack to be loaded into the
+     * cache, front-most index first.  The tasks outside of the window of a paged stack are
+     * prefetched by the ids their data source has for them, without creating the tasks.
+     */
+    public void prefetchTaskRange(ProfileStack stack, int frontMostIndex, int backMostIndex) {
+        if (mThumbnailCache == null) {
+            return;
+        }
+        ArrayList<Profile> tasks = stack.getTasks();
+        int windowStart = stack.getWindowStart();
+        int windowEnd = windowStart + tasks.size();
+        frontMostIndex = Math.min(frontMostIndex, stack.getTotalTaskCount() - 1);
+        backMostIndex = Math.max(0, backMostIndex);
+        for (int i = frontMostIndex; i >= backMostIndex; i--) {
+            if (i >= windowStart && i < windowEnd) {
+                prefetchTaskData(tasks.get(i - windowStart), i);
+            } else if (stack.mDataSource != null) {
+                Profile.TaskKey key = new Profile.TaskKey();
+                key.id = stack.mDataSource.getTaskId(i);
+                prefetchThumbnail(key, null, i);
+            }
+        }
+    }
+
+    /** Requests a thumbnail to be loaded into the cache, unless it is cached or being loaded */
+    private void prefetchThumbnail(Profile.TaskKey key, ComponentName component, int taskIndex) {
+        if (mThumbnailCache == null || mActiveRequests.containsKey(key)) {
+            return;
+        }
+        Bitmap thumbnail = mThumbnailCache.getFromMemory(key, mThumbnailWidth);
+        if (thumbnail != null) {
+            mBitmapPool.release(thumbnail);
+            return;
+        }
+        queueRequest(new TaskLoadRequest(key, component, null, taskIndex, mThumbnailWidth));
+    }
+
+    /**
+     * Returns the thumbnail of a task if it is bound to the task or cached in memory, without
+     * loading anything.  Called on the main thread.  The caller is given a reference to the
+     * thumbnail in the bitmap pool, which it has to release.
+     */
+    public Bitmap getLoadedThumbnail(Profile t) {
+        if (t.thumbnail != null && !t.thumbnail.isRecycled()) {
+            mBitmapPool.acquire(t.thumbnail);
+            return t.thumbnail;
+        }
+        return (mThumbnailCache != null) ? mThumbnailCache.getFromMemory(t.key, 0) : null;
+    }
+
+    /** Cancels any pending load of the data of a task, and releases the data already loaded */
+    public void unloadTaskData(Profile t) {
+        cancelTaskLoad(t);
+        Bitmap thumbnail = t.thumbnail;
+        t.notifyTaskDataUnloaded();
+        if (thumbnail != null) {
+            mBitmapPool.release(thumbnail);
+        }
+    }
+
+    /**
+     * Unloads the data of all the loaded tasks of a stack that is going away, filtered or not, and
+     * cancels their pending loads.  This includes the tasks that were loaded without ever being
+     * bound to a view, whose thumbnails would otherwise stay referenced.
+     */
+    public void unloadTasks(ProfileStack stack) {
+        ArrayList<Profile> tasks = stack.mTaskList.mTasks;
+        int taskCount = tasks.size();
+        for (int i = 0; i < taskCount; i++) {
+            unloadTaskData(tasks.get(i));
+        }
+    }
+
+    /** Cancels any pending load of the data of a task */
+    private void cancelTaskLoad(Profile t) {
+        TaskLoadRequest request = mActiveRequests.get(t.key);
+        if (request != null && request.task == t) {
+            cancelRequest(request);
+        }
+    }
+
+    /**
+     * Sets the icon of the activity of a task from the cache, and its label if the task has none,
+     * and returns whether they were cached.  Tasks without an activity have nothing to load.
+     */
+    private boolean bindActivityResources(Profile t) {
+        if (t.component == null) {
+            return true;
+        }
+        ActivityResourceCache.Entry entry = mActivityResourceCache.get(t.component);
+        if (entry == null) {
+            return false;
+        }
+        t.applicationIcon = entry.icon;
+        if (t.activityLabel == null) {
+            t.activityLabel = entry.label;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the thumbnail of a task from the memory cache if its header colors are computed
+     * too, so that it can be bound on the main thread, or null otherwise.  The caller is given a
+     * reference to the thumbnail in the bitmap pool.
+     */
+    private Bitmap getCachedThumbnail(Profile t) {
+        if (mThumbnailCache == null || mTaskColorCache.get(t.key) == null) {
+            return null;
+        }
+        return mThumbnailCache.getFromMemory(t.key, mThumbnailWidth);
+    }
+
+    /**
+     * Binds a thumbnail that the caller holds a reference to to a task, releasing the thumbnail
+     * the task had
+     */
+    private void bindThumbnail(Profile t, Bitmap thumbnail) {
+        Bitmap previousThumbnail = t.thumbnail;
+        // The task holds on to the payload while it is bound, so it is not kept in the cache
+        TaskBindPayload payload = mBindPayloads.remove(t.key.id);
+        t.bindPayload = (payload != null && payload.thumbnail == thumbnail) ? payload : null;
+        bindActivityResources(t);
+        TaskColorCache.Entry colors = mTaskColorCache.get(t.key);
+        if (colors != null) {
+            t.colorPrimary = colors.primaryColor;
+            t.useLightOnPrimaryColor = colors.useLightOnPrimaryColor;
+        }
+        t.notifyTaskDataLoaded(thumbnail);
+        if (previousThumbnail != null) {
+            mBitmapPool.release(previousThumbnail);
+        }
+    }
+
+    /**
+     * Adds a request to the queue.  If the queue is full, the request furthest from the visible
+     * tasks is dropped, unless it is for a visible task itself.
+     */
+    private void queueRequest(TaskLoadRequest request) {
+        mActiveRequests.put(request.key, request);
+        TaskLoadRequest droppedRequest = null;
+        synchronized (mRequestQueue) {
+            mRequestQueue.add(request);
+            if (mRequestQueue.size() > mMaxNumTasksToLoad) {
+                int furthestIndex = 0;
+                int furthestDistance = 0;
+                int queueSize = mRequestQueue.size();
+                for (int i = 0; i < queueSize; i++) {
+                    int distance = getPriorityDistance(mRequestQueue.get(i));
+                    if (distance > furthestDistance) {
+                        furthestIndex = i;
+                        furthestDistance = distance;
+                    }
+                }
+                if (furthestDistance > 0) {
+                    droppedRequest = mRequestQueue.remove(furthestIndex);
+                    droppedRequest.isCancelled = true;
+                }
+            }
+            mRequestQueue.notify();
+        }
+        if (droppedRequest != null) {
+            mActiveRequests.remove(droppedRequest.key);
+        }
+    }
+
+    /**
+     * Cancels a request that has not been delivered yet.  If a loader thread has already taken
+     * it, any decode in progress is asked to stop, and the thread skips its remaining steps.
+     */
+    private void cancelRequest(TaskLoadRequest request) {
+        mActiveRequests.remove(request.key);
+        synchronized (mRequestQueue) {
+            request.isCancelled = true;
+            mRequestQueue.remove(request);
+        }
+        request.decodeOptions.requestCancelDecode();
+    }
+
+    /** Returns whether a request has been cancelled */
+    boolean isCancelled(TaskLoadRequest request) {
+        synchronized (mRequestQueue) {
+            return request.isCancelled;
+        }
+    }
+
+    /**
+     * Takes the queued request nearest to the visible tasks, waiting for one if needed, or
+     * returning null if there is none and it should not wait.  A wait also ends with null once
+     * the visible range moves, so that there may be cold thumbnails to compact.  While a fling is
+     * in progress, only the requests for the tasks it will land on are taken.
+     */
+    TaskLoadRequest takeNextRequest(boolean wait) {
+        synchronized (mRequestQueue) {
+            while (true) {
+                int nearestIndex = -1;
+                int nearestDistance = Integer.MAX_VALUE;
+                int queueSize = mRequestQueue.size();
+                for (int i = 0; i < queueSize; i++) {
+                    TaskLoadRequest request = mRequestQueue.get(i);
+                    if (mHasFlingTarget && getDistanceFromRange(request.taskIndex,
+                            mFlingFrontMostIndex, mFlingBackMostIndex) > 0) {
+                        continue;
+                    }
+                    int distance = getPriorityDistance(request);
+                    if (distance < nearestDistance) {
+                        nearestIndex = i;
+                        nearestDistance = distance;
+                    }
+                }
+                if (nearestIndex >= 0) {
+                    return mRequestQueue.remove(nearestIndex);
+                }
+                if (!wait) {
+                    return null;
+                }
+                if (mIsCompactionPending) {
+                    mIsCompactionPending = false;
+                    return null;
+                }
+                try {
+                    mRequestQueue.wait();
+                } catch (InterruptedException e) {
+                    // Keep waiting, the loader threads live as long as the process
+                }
+            }
+        }
+    }
+
+    /**
+     * Compacts a thumbnail in memory whose task is far from the visible tasks, and returns
+     * whether there was one
+     */
+    boolean compactColdThumbnail() {
+        int coldDistance = Constants.Values.RecentsTaskLoader.ThumbnailColdTaskDistance;
+        if (mThumbnailCache == null || coldDistance < 0) {
+            return false;
+        }
+        int frontMostIndex;
+        int backMostIndex;
+        synchronized (mRequestQueue) {
+            frontMostIndex = mVisibleFrontMostIndex;
+            backMostIndex = mVisibleBackMostIndex;
+        }
+        return mThumbnailCache.compactColdEntry(frontMostIndex, backMostIndex, coldDistance);
+    }
+
+    /**
+     * Returns how many tasks away the task of a request is from the visible range, or from the
+     * range a fling will land on if that is closer
+     */
+    private int getPriorityDistance(TaskLoadRequest request) {
+        int distance = getDistanceFromRange(request.taskIndex, mVisibleFrontMostIndex,
+                mVisibleBackMostIndex);
+        if (mHasFlingTarget) {
+            distance = Math.min(distance, getDistanceFromRange(request.taskIndex,
+                    mFlingFrontMostIndex, mFlingBackMostIndex));
+        }
+        return distance;
+    }
+
+    /** Returns how many tasks away from a range of task indices a task index is */
+    private static int getDistanceFromRange(int taskIndex, int frontMostIndex,
+            int backMostIndex) {
+        if (taskIndex > frontMostIndex) {
+            return taskIndex - frontMostIndex;
+        } else if (taskIndex < backMostIndex) {
+            return backMostIndex - taskIndex;
+        }
+        return 0;
+    }
+
+    /**
+     * Delivers the loaded data of a request to its task, unless the request was cancelled.  The
+     * bind payload is kept until the task is bound, if the request was only a prefetch.
+     */
+    void deliverRequest(TaskLoadRequest request, Bitmap thumbnail, TaskBindPayload payload) {
+        boolean isCancelled = isCancelled(request);
+        if (isCancelled || request.thumbnailWidth != mThumbnailWidth) {
+            if (thumbnail != null) {
+                mBitmapPool.release(thumbnail);
+            }
+            if (!isCancelled) {
+                // The width changed while the request was loading, so load it again
+                mActiveRequests.remove(request.key);
+                queueRequest(new TaskLoadRequest(request.key, request.component, request.task,
+                        request.taskIndex, mThumbnailWidth));
+            }
+            return;
+        }
+        mActiveRequests.remove(request.key);
+        if (payload != null) {
+            mBitmapPool.acquire(payload.thumbnail);
+            mBindPayloads.put(request.key.id, payload);
+        }
+        if (request.task == null) {
+            // The thumbnail was only prefetched, so leave it in the cache
+            if (thumbnail != null) {
+                mBitmapPool.release(thumbnail);
+            }
+            return;
+        }
+        bindThumbnail(request.task, thumbnail);
+    }
+
+    /**
+     * Returns whether a thumbnail is loaded at the current width.  Thumbnails are scaled to the
+     * width they are loaded at, so one loaded for another width is never mistaken for it.
+     */
+    private boolean isThumbnailLoaded(Bitmap thumbnail) {
+        return thumbnail != null &&
+                (mThumbnailWidth <= 0 || thumbnail.getWidth() == mThumbnailWidth);
+    }
+
+    /**
+     * Returns the thumbnail of a request from the cache, or loads it from the thumbnail source
+     * and caches it in memory.  The caller is given a reference to the thumbnail in the bitmap
+     * pool, and a thumbnail loaded from the source still has to be written to disk by the caller.
+     * The header colors of the task are computed from the thumbnail if they are not cached.
+     * Returns null without loading the rest once the request is cancelled.  This is only called
+     * on the loader threads.
+     */
+    Bitmap loadRequest(TaskLoadRequest request) {
+        Profile.TaskKey key = request.key;
+        int width = request.thumbnailWidth;
+        if (request.component != null) {
+            mActivityResourceCache.load(request.component);
+        }
+        if (mThumbnailCache != null) {
+            synchronized (mRequestQueue) {
+                mThumbnailCache.setTaskIndex(key, request.taskIndex);
+            }
+            Bitmap thumbnail = mThumbnailCache.get(key, width, request.decodeOptions);
+            if (thumbnail != null) {
+                mTaskColorCache.compute(key, thumbnail);
+                return thumbnail;
+            }
+        }
+        if (isCancelled(request)) {
+            return null;
+        }
+        Bitmap thumbnail = loadThumbnail(key, width);
+        if (thumbnail != null) {
+            mTaskColorCache.compute(key, thumbnail);
+            mBitmapPool.acquire(thumbnail);
+            if (mThumbnailCache != null) {
+                mThumbnailCache.put(key, thumbnail);
+                request.isThumbnailLoadedFromSource = true;
+            }
+        }
+        return thumbnail;
+    }
+
+    /** Prepares the payload to bind a thumbnail with, at the current size of the thumbnail views */
+    TaskBindPayload createBindPayload(Bitmap thumbnail) {
+        int viewWidth;
+        int viewHeight;
+        synchronized (mRequestQueue) {
+            viewWidth = mThumbnailViewWidth;
+            viewHeight = mThumbnailViewHeight;
+        }
+        if (viewWidth <= 0 || viewHeight <= 0) {
+            return null;
+        }
+        return new TaskBindPayload(thumbnail, viewWidth, viewHeight);
+    }
+
+    /** Returns the config to keep a thumbnail in, which is RGB_565 if it is opaque and allowed */
+    private static Bitmap.Config getThumbnailConfig(Bitmap thumbnail) {
+        return (Constants.Values.RecentsTaskLoader.UseRgb565ForOpaqueThumbnails &&
+                !thumbnail.hasAlpha()) ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+    }
+
+    /** Loads the thumbnail of a task from the thumbnail source, scaled to a width */
+    Bitmap loadThumbnail(Profile.TaskKey key, int width) {
+        ThumbnailSource source = mThumbnailSource;
+        if (source == null) {
+            return null;
+        }
+        try {
+            Bitmap thumbnail = source.loadThumbnail(key, width);
+            if (thumbnail == null) {
+                return null;
+            }
+            Bitmap scaled = mBitmapPool.scaleToWidth(thumbnail, width,
+                    getThumbnailConfig(thumbnail));
+            if (scaled != thumbnail) {
+                mBitmapPool.put(thumbnail);
+            }
+            return scaled;
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to load the thumbnail of task " + key.id, e);
+            return null;
+        }
+    }
 }
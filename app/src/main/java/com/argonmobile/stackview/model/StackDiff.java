@@ -0,0 +1,135 @@
+package com.argonmobile.stackview.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The structural difference between two versions of the filtered tasks in a stack, as a minimal
+ * list of removes, moves and inserts.  The from-indices of each change refer to positions in the
+ * old list and the to-indices to positions in the new list, so the changes can be applied in any
+ * order.
+ */
+public class StackDiff {
+
+    ArrayList<ProfileStack.TaskListChange> mChanges = new ArrayList<ProfileStack.TaskListChange>();
+
+    StackDiff() {}
+
+    /** Creates a diff holding a single change */
+    static StackDiff of(ProfileStack.TaskListChange change) {
+        StackDiff diff = new StackDiff();
+        diff.mChanges.add(change);
+        return diff;
+    }
+
+    /**
+     * Computes the diff between two lists of tasks, matching tasks by id.  Tasks that keep their
+     * relative order are never reported as moved, only the ones outside of the longest run of
+     * tasks that kept their order are.  This is linear when no task changed its relative order,
+     * which is the case for filtering and unfiltering, and O(n log n) otherwise.
+     */
+    static StackDiff compute(List<Profile> oldTasks, List<Profile> newTasks) {
+        StackDiff diff = new StackDiff();
+        int oldCount = oldTasks.size();
+        int newCount = newTasks.size();
+
+        TaskIdIndex newIndices = new TaskIdIndex(newCount);
+        for (int i = 0; i < newCount; i++) {
+            newIndices.put(newTasks.get(i).key.id, i);
+        }
+        TaskIdIndex oldIndices = new TaskIdIndex(oldCount);
+
+        // Collect the removed tasks, and the new positions of the kept tasks in their old order
+        int[] keptOldIndices = new int[oldCount];
+        int[] keptNewIndices = new int[oldCount];
+        int keptCount = 0;
+        for (int i = 0; i < oldCount; i++) {
+            Profile t = oldTasks.get(i);
+            oldIndices.put(t.key.id, i);
+            int newIndex = newIndices.get(t.key.id, -1);
+            if (newIndex < 0) {
+                diff.mChanges.add(ProfileStack.TaskListChange.remove(t, i));
+            } else {
+                keptOldIndices[keptCount] = i;
+                keptNewIndices[keptCount] = newIndex;
+                keptCount++;
+            }
+        }
+
+        // Any kept task that is not part of the longest increasing run of new positions has moved
+        boolean[] inOrder = longestIncreasingSubsequence(keptNewIndices, keptCount);
+        for (int i = 0; i < keptCount; i++) {
+            if (!inOrder[i]) {
+                int newIndex = keptNewIndices[i];
+                diff.mChanges.add(ProfileStack.TaskListChange.move(newTasks.get(newIndex),
+                        keptOldIndices[i], newIndex));
+            }
+        }
+
+        // Collect the inserted tasks
+        for (int i = 0; i < newCount; i++) {
+            Profile t = newTasks.get(i);
+            if (!oldIndices.containsKey(t.key.id)) {
+                diff.mChanges.add(ProfileStack.TaskListChange.insert(t, i));
+            }
+        }
+        return diff;
+    }
+
+    /**
+     * Marks the elements that belong to a longest strictly increasing subsequence of the first
+     * count values.
+     */
+    static boolean[] longestIncreasingSubsequence(int[] values, int count) {
+        // tails[k] is the index of the smallest tail of all the increasing runs of length k + 1
+        int[] tails = new int[count];
+        int[] predecessors = new int[count];
+        int length = 0;
+        for (int i = 0; i < count; i++) {
+            int v = values[i];
+            int pos;
+            if (length == 0 || values[tails[length - 1]] < v) {
+                // Fast path for values that are already in order
+                pos = length;
+            } else {
+                int lo = 0;
+                int hi = length - 1;
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (values[tails[mid]] < v) {
+                        lo = mid + 1;
+                    } else {
+                        hi = mid;
+                    }
+                }
+                pos = lo;
+            }
+            predecessors[i] = (pos > 0) ? tails[pos - 1] : -1;
+            tails[pos] = i;
+            if (pos == length) {
+                length++;
+            }
+        }
+
+        boolean[] inSequence = new boolean[count];
+        for (int i = (length > 0) ? tails[length - 1] : -1; i >= 0; i = predecessors[i]) {
+            inSequence[i] = true;
+        }
+        return inSequence;
+    }
+
+    /** Returns the changes in this diff */
+    public ArrayList<ProfileStack.TaskListChange> getChanges() {
+        return mChanges;
+    }
+
+    /** Returns whether the two lists had the same tasks in the same order */
+    public boolean isEmpty() {
+        return mChanges.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "StackDiff changes: " + mChanges;
+    }
+}
@@ -0,0 +1,407 @@
+package com.argonmobile.stackview.model;
+
+import android.graphics.Bitmap;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A compact binary snapshot of a stack, written when the stack goes away and memory mapped when it
+ * comes back, so that the first frame can be drawn before the live tasks are loaded.  The mapped
+ * snapshot is a data source for a paged stack: only the tasks in the window are read, and nothing
+ * is copied out of the file up front.  It is also a thumbnail source, so the thumbnails of the
+ * tasks are decoded on the loader threads like any other.
+ *
+ * Only the tasks that are loaded are written, which for a paged stack are the ones in its window,
+ * along with the thumbnails that are loaded or cached in memory.  Nothing is paged in or decoded
+ * to write a snapshot.
+ *
+ * The file holds a header, a fixed size record per task in stack order, a pool of the distinct
+ * labels, and the raw pixels of the thumbnails the tasks had.  All values are big endian.  Every
+ * offset in the file is checked against its size when it is mapped.
+ */
+public class StackSnapshotFile implements ProfileDataSource, RecentProfileLoader.ThumbnailSource {
+
+    static final int Magic = 0x50534e50; // "PSNP"
+    static final int Version = 3;
+
+    // magic, version, scroll task offset, window start, task count, label count, labels offset,
+    // thumbnails offset, scroll task id
+    static final int HeaderSize = 9 * 4;
+    // id, affiliation, label index, flags, thumbnail offset, thumbnail width, thumbnail height
+    static final int RecordSize = 7 * 4;
+
+    static final int FlagLaunchTarget = 1;
+    // The thumbnail pixels are RGB_565 rather than ARGB_8888
+    static final int FlagRgb565 = 2;
+    static final int NoLabel = -1;
+    static final int NoThumbnail = -1;
+
+    /**
+     * The tasks of a stack that were loaded when it was captured, to be written to a snapshot off
+     * the main thread.  The contents hold a reference to each thumbnail until they are released.
+     */
+    public static class Contents {
+        final BitmapPool mBitmapPool;
+        final int mScrollTaskId;
+        final float mScrollTaskOffset;
+        final int mWindowStart;
+        final int[] mIds;
+        final int[] mAffiliations;
+        final String[] mLabels;
+        final boolean[] mIsLaunchTargets;
+        final Bitmap[] mThumbnails;
+
+        Contents(BitmapPool bitmapPool, int scrollTaskId, float scrollTaskOffset, int windowStart,
+                int taskCount) {
+            mBitmapPool = bitmapPool;
+            mScrollTaskId = scrollTaskId;
+            mScrollTaskOffset = scrollTaskOffset;
+            mWindowStart = windowStart;
+            mIds = new int[taskCount];
+            mAffiliations = new int[taskCount];
+            mLabels = new String[taskCount];
+            mIsLaunchTargets = new boolean[taskCount];
+            mThumbnails = new Bitmap[taskCount];
+        }
+
+        /** Releases the thumbnails, once the contents are written */
+        public void release() {
+            for (int i = 0; i < mThumbnails.length; i++) {
+                if (mThumbnails[i] != null) {
+                    mBitmapPool.release(mThumbnails[i]);
+                    mThumbnails[i] = null;
+                }
+            }
+        }
+    }
+
+    final ByteBuffer mBuffer;
+    final BitmapPool mBitmapPool;
+    final int mScrollTaskId;
+    final float mScrollTaskOffset;
+    final int mWindowStart;
+    final int mTaskCount;
+    final int mLabelCount;
+    final int mLabelsOffset;
+    final String[] mLabels;
+    // The record of each task, by task id
+    final TaskIdIndex mRecordIndices;
+
+    StackSnapshotFile(ByteBuffer buffer, BitmapPool bitmapPool) throws IOException {
+        mBuffer = buffer;
+        mBitmapPool = bitmapPool;
+        int size = buffer.capacity();
+        if (size < HeaderSize || buffer.getInt(0) != Magic || buffer.getInt(4) != Version) {
+            throw new IOException("Not a stack snapshot");
+        }
+        mScrollTaskOffset = buffer.getFloat(8);
+        mWindowStart = buffer.getInt(12);
+        mTaskCount = buffer.getInt(16);
+        mLabelCount = buffer.getInt(20);
+        mLabelsOffset = buffer.getInt(24);
+        int thumbnailsOffset = buffer.getInt(28);
+        mScrollTaskId = buffer.getInt(32);
+        long recordsEnd = HeaderSize + (long) mTaskCount * RecordSize;
+        long charsOffset = mLabelsOffset + (mLabelCount + 1L) * 4;
+        if (mWindowStart < 0 || mTaskCount < 0 || mLabelCount < 0 ||
+                mLabelsOffset < recordsEnd || charsOffset > size) {
+            throw new IOException("Truncated stack snapshot");
+        }
+
+        // The char offsets of the labels have to start at zero and never go back
+        int charOffset = 0;
+        for (int i = 0; i <= mLabelCount; i++) {
+            int offset = buffer.getInt(mLabelsOffset + i * 4);
+            if ((i == 0) ? (offset != 0) : (offset < charOffset)) {
+                throw new IOException("Corrupt stack snapshot labels");
+            }
+            charOffset = offset;
+        }
+        long charsEnd = charsOffset + charOffset * 2L;
+        if (thumbnailsOffset < charsEnd || thumbnailsOffset > size) {
+            throw new IOException("Truncated stack snapshot labels");
+        }
+
+        mRecordIndices = new TaskIdIndex(mTaskCount);
+        for (int i = 0; i < mTaskCount; i++) {
+            int record = HeaderSize + i * RecordSize;
+            int labelIndex = buffer.getInt(record + 8);
+            if (labelIndex != NoLabel && (labelIndex < 0 || labelIndex >= mLabelCount)) {
+                throw new IOException("Corrupt stack snapshot record " + i);
+            }
+            int offset = buffer.getInt(record + 16);
+            if (offset != NoThumbnail) {
+                int width = buffer.getInt(record + 20);
+                int height = buffer.getInt(record + 24);
+                int bytesPerPixel = ((buffer.getInt(record + 12) & FlagRgb565) != 0) ? 2 : 4;
+                if (width <= 0 || height <= 0 || offset < thumbnailsOffset ||
+                        offset + (long) width * height * bytesPerPixel > size) {
+                    throw new IOException("Truncated stack snapshot thumbnail " + i);
+                }
+            }
+            mRecordIndices.put(buffer.getInt(record), i);
+        }
+        mLabels = new String[mLabelCount];
+    }
+
+    /**
+     * Maps a snapshot file, which stays mapped until this snapshot is garbage collected.  The
+     * thumbnails are decoded into bitmaps from the pool.  Throws if the file is not a complete
+     * snapshot.
+     */
+    public static StackSnapshotFile map(File file, BitmapPool bitmapPool) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new StackSnapshotFile(buffer, bitmapPool);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Captures the loaded tasks of a stack, ignoring any filter, along with the thumbnails that
+     * the loader has in memory for them.  This only reads what is loaded, and is called on the
+     * main thread.  The stack scroll is kept relative to the top of a task, as the tasks of the
+     * snapshot are not spaced like the tasks of the stack.
+     */
+    public static Contents capture(ProfileStack stack, int scrollTaskId, float scrollTaskOffset,
+            RecentProfileLoader loader) {
+        ArrayList<Profile> tasks = stack.mTaskList.mTasks;
+        int taskCount = tasks.size();
+        Contents contents = new Contents((loader != null) ? loader.getBitmapPool() : null,
+                scrollTaskId, scrollTaskOffset, stack.getWindowStart(), taskCount);
+        for (int i = 0; i < taskCount; i++) {
+            Profile t = tasks.get(i);
+            contents.mIds[i] = t.key.id;
+            contents.mAffiliations[i] = t.taskAffiliation;
+            contents.mLabels[i] = t.activityLabel;
+            contents.mIsLaunchTargets[i] = t.isLaunchTarget;
+            if (loader != null) {
+                contents.mThumbnails[i] = loader.getLoadedThumbnail(t);
+            }
+        }
+        return contents;
+    }
+
+    /**
+     * Writes a snapshot of captured contents, which can be done on any thread.  The snapshot is
+     * written to a temporary file first, so a snapshot that is still mapped is never modified.
+     */
+    public static void write(File file, Contents contents) throws IOException {
+        int taskCount = contents.mIds.length;
+
+        // Pool the labels, and lay out the thumbnails after them
+        ArrayList<String> labels = new ArrayList<String>();
+        HashMap<String, Integer> labelIndices = new HashMap<String, Integer>();
+        int labelCharCount = 0;
+        for (int i = 0; i < taskCount; i++) {
+            String label = contents.mLabels[i];
+            if (label != null && !labelIndices.containsKey(label)) {
+                labelIndices.put(label, labels.size());
+                labels.add(label);
+                labelCharCount += label.length();
+            }
+        }
+        int labelsOffset = HeaderSize + taskCount * RecordSize;
+        int thumbnailsOffset = labelsOffset + (labels.size() + 1) * 4 + labelCharCount * 2;
+
+        File tmpFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmpFile)));
+        try {
+            out.writeInt(Magic);
+            out.writeInt(Version);
+            out.writeFloat(contents.mScrollTaskOffset);
+            out.writeInt(contents.mWindowStart);
+            out.writeInt(taskCount);
+            out.writeInt(labels.size());
+            out.writeInt(labelsOffset);
+            out.writeInt(thumbnailsOffset);
+            out.writeInt(contents.mScrollTaskId);
+
+            int thumbnailOffset = thumbnailsOffset;
+            for (int i = 0; i < taskCount; i++) {
+                String label = contents.mLabels[i];
+                Bitmap thumbnail = getWritableThumbnail(contents.mThumbnails[i]);
+                int flags = contents.mIsLaunchTargets[i] ? FlagLaunchTarget : 0;
+                out.writeInt(contents.mIds[i]);
+                out.writeInt(contents.mAffiliations[i]);
+                out.writeInt((label != null) ? labelIndices.get(label) : NoLabel);
+                if (thumbnail != null) {
+                    if (thumbnail.getConfig() == Bitmap.Config.RGB_565) {
+                        flags |= FlagRgb565;
+                    }
+                    out.writeInt(flags);
+                    out.writeInt(thumbnailOffset);
+                    out.writeInt(thumbnail.getWidth());
+                    out.writeInt(thumbnail.getHeight());
+                    thumbnailOffset += thumbnail.getByteCount();
+                } else {
+                    out.writeInt(flags);
+                    out.writeInt(NoThumbnail);
+                    out.writeInt(0);
+                    out.writeInt(0);
+                }
+            }
+
+            // The char offsets of the labels, with the end of the last one, then their chars
+            int charOffset = 0;
+            int labelCount = labels.size();
+            for (int i = 0; i < labelCount; i++) {
+                out.writeInt(charOffset);
+                charOffset += labels.get(i).length();
+            }
+            out.writeInt(charOffset);
+            for (int i = 0; i < labelCount; i++) {
+                out.writeChars(labels.get(i));
+            }
+
+            ByteBuffer pixels = null;
+            for (int i = 0; i < taskCount; i++) {
+                Bitmap thumbnail = getWritableThumbnail(contents.mThumbnails[i]);
+                if (thumbnail != null) {
+                    int byteCount = thumbnail.getByteCount();
+                    if (pixels == null || pixels.capacity() < byteCount) {
+                        pixels = ByteBuffer.allocate(byteCount);
+                    }
+                    pixels.clear();
+                    thumbnail.copyPixelsToBuffer(pixels);
+                    out.write(pixels.array(), 0, byteCount);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmpFile.renameTo(file)) {
+            tmpFile.delete();
+            throw new IOException("Failed to replace " + file);
+        }
+    }
+
+    /** Returns a thumbnail if its pixels can be written to a snapshot */
+    private static Bitmap getWritableThumbnail(Bitmap thumbnail) {
+        if (thumbnail == null || thumbnail.isRecycled() ||
+                (thumbnail.getConfig() != Bitmap.Config.ARGB_8888 &&
+                        thumbnail.getConfig() != Bitmap.Config.RGB_565)) {
+            return null;
+        }
+        return thumbnail;
+    }
+
+    /** Returns the id of the task the stack scroll was relative to, or -1 if there was none */
+    public int getScrollTaskId() {
+        return mScrollTaskId;
+    }
+
+    /** Returns the stack scroll less the scroll of the task it was relative to */
+    public float getScrollTaskOffset() {
+        return mScrollTaskOffset;
+    }
+
+    /**
+     * Returns the index that the first task of the snapshot had in its stack, which is not zero
+     * if only the window of a paged stack was loaded
+     */
+    public int getWindowStart() {
+        return mWindowStart;
+    }
+
+    @Override
+    public int getCount() {
+        return mTaskCount;
+    }
+
+    @Override
+    public int getTaskId(int index) {
+        if (index < 0 || index >= mTaskCount) {
+            throw new IndexOutOfBoundsException("Invalid task " + index + ", count is " +
+                    mTaskCount);
+        }
+        return mBuffer.getInt(HeaderSize + index * RecordSize);
+    }
+
+    @Override
+    public int indexOfTaskId(int taskId) {
+        return mRecordIndices.get(taskId, -1);
+    }
+
+    @Override
+    public void loadPage(int start, int count, List<Profile> profilesOut) {
+        int end = Math.min(start + count, mTaskCount);
+        for (int i = start; i < end; i++) {
+            int record = HeaderSize + i * RecordSize;
+            Profile t = new Profile();
+            t.key.id = mBuffer.getInt(record);
+            t.taskAffiliation = mBuffer.getInt(record + 4);
+            t.activityLabel = getLabel(mBuffer.getInt(record + 8));
+            t.isLaunchTarget = (mBuffer.getInt(record + 12) & FlagLaunchTarget) != 0;
+            profilesOut.add(t);
+        }
+    }
+
+    /** Returns a label from the pool, decoding it the first time it is used */
+    private synchronized String getLabel(int labelIndex) {
+        if (labelIndex < 0 || labelIndex >= mLabelCount) {
+            return null;
+        }
+        String label = mLabels[labelIndex];
+        if (label == null) {
+            int charsOffset = mLabelsOffset + (mLabelCount + 1) * 4;
+            int start = mBuffer.getInt(mLabelsOffset + labelIndex * 4);
+            int end = mBuffer.getInt(mLabelsOffset + (labelIndex + 1) * 4);
+            char[] chars = new char[end - start];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = mBuffer.getChar(charsOffset + (start + i) * 2);
+            }
+            label = new String(chars);
+            mLabels[labelIndex] = label;
+        }
+        return label;
+    }
+
+    /**
+     * Copies the thumbnail of a task out of the mapped pixels into a pooled bitmap, or returns
+     * null if the task is not in the snapshot or had no thumbnail.  This is called on the loader
+     * threads, which scale the thumbnail to the width.
+     */
+    @Override
+    public Bitmap loadThumbnail(Profile.TaskKey key, int width) {
+        int taskIndex = mRecordIndices.get(key.id, -1);
+        if (taskIndex < 0) {
+            return null;
+        }
+        int record = HeaderSize + taskIndex * RecordSize;
+        int offset = mBuffer.getInt(record + 16);
+        if (offset == NoThumbnail) {
+            return null;
+        }
+        int thumbnailWidth = mBuffer.getInt(record + 20);
+        int thumbnailHeight = mBuffer.getInt(record + 24);
+        Bitmap.Config config = ((mBuffer.getInt(record + 12) & FlagRgb565) != 0) ?
+                Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        int bytesPerPixel = (config == Bitmap.Config.RGB_565) ? 2 : 4;
+        Bitmap thumbnail = (mBitmapPool != null) ?
+                mBitmapPool.get(thumbnailWidth, thumbnailHeight, config) : null;
+        if (thumbnail == null) {
+            thumbnail = Bitmap.createBitmap(thumbnailWidth, thumbnailHeight, config);
+        }
+        ByteBuffer pixels = mBuffer.duplicate();
+        pixels.limit(offset + thumbnailWidth * thumbnailHeight * bytesPerPixel);
+        pixels.position(offset);
+        thumbnail.copyPixelsFromBuffer(pixels.slice());
+        return thumbnail;
+    }
+}
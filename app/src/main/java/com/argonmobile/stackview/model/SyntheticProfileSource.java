@@ -0,0 +1,143 @@
+package com.argonmobile.stackview.model;
+
+import android.content.ComponentName;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+
+import java.util.List;
+
+/**
+ * A source of generated tasks, used as a fixed workload for benchmarking and stress testing the
+ * stack.  The tasks are spread over a number of packages and affiliation groups, and everything
+ * about a task is derived from its index, so the same arguments always generate the same stack:
+ * task i has id i, a label naming its package and index, and a thumbnail of a color picked from
+ * its index under a header of the color of its package.  Nothing is allocated per task until it
+ * is paged in, so a source can generate any number of tasks.
+ */
+public class SyntheticProfileSource implements ProfileDataSource,
+        RecentProfileLoader.ThumbnailSource {
+
+    static final String PackageNamePrefix = "com.argonmobile.stackview.synthetic.app";
+    static final String ActivityClassName = ".SyntheticActivity";
+    // The fraction of the thumbnail height taken by its header
+    static final float HeaderHeightFraction = 1f / 12;
+
+    final int mTaskCount;
+    final int mTasksPerGroup;
+    final int mThumbnailWidth;
+    final int mThumbnailHeight;
+    // The pool the thumbnails are drawn into, if there is one
+    final BitmapPool mBitmapPool;
+    final ComponentName[] mComponents;
+    final String[] mPackageLabels;
+
+    /**
+     * Creates a source of a number of tasks spread over a number of packages.  Each run of
+     * tasksPerGroup tasks shares an affiliation, or each task has its own if it is 1 or less, and
+     * the thumbnails are generated at a width and height, sampled down when a smaller width is
+     * asked for, into bitmaps from a pool if one is given.
+     */
+    public SyntheticProfileSource(int taskCount, int packageCount, int tasksPerGroup,
+            int thumbnailWidth, int thumbnailHeight, BitmapPool bitmapPool) {
+        if (taskCount < 0 || packageCount <= 0 || thumbnailWidth <= 0 || thumbnailHeight <= 0) {
+            throw new IllegalArgumentException("Invalid synthetic stack: " + taskCount +
+                    " tasks, " + packageCount + " packages, " + thumbnailWidth + "x" +
+                    thumbnailHeight + " thumbnails");
+        }
+        mTaskCount = taskCount;
+        mTasksPerGroup = Math.max(1, tasksPerGroup);
+        mThumbnailWidth = thumbnailWidth;
+        mThumbnailHeight = thumbnailHeight;
+        mBitmapPool = bitmapPool;
+        mComponents = new ComponentName[packageCount];
+        mPackageLabels = new String[packageCount];
+        for (int i = 0; i < packageCount; i++) {
+            mComponents[i] = new ComponentName(PackageNamePrefix + i, ActivityClassName);
+            mPackageLabels[i] = "Synthetic App " + i;
+        }
+    }
+
+    /** Returns a new task for an index */
+    public Profile getProfile(int index) {
+        if (index < 0 || index >= mTaskCount) {
+            throw new IndexOutOfBoundsException("Invalid task " + index + ", count is " +
+                    mTaskCount);
+        }
+        int packageIndex = getPackageIndex(index);
+        Profile t = new Profile();
+        t.key.id = index;
+        t.taskAffiliation = getAffiliation(index);
+        t.activityLabel = mPackageLabels[packageIndex] + " #" + index;
+        t.component = mComponents[packageIndex];
+        return t;
+    }
+
+    @Override
+    public int getCount() {
+        return mTaskCount;
+    }
+
+    @Override
+    public int getTaskId(int index) {
+        return index;
+    }
+
+    @Override
+    public int indexOfTaskId(int taskId) {
+        return (taskId >= 0 && taskId < mTaskCount) ? taskId : -1;
+    }
+
+    @Override
+    public void loadPage(int start, int count, List<Profile> profilesOut) {
+        int end = Math.min(start + count, mTaskCount);
+        for (int i = start; i < end; i++) {
+            profilesOut.add(getProfile(i));
+        }
+    }
+
+    @Override
+    public Bitmap loadThumbnail(Profile.TaskKey key, int width) {
+        if (key.id < 0 || key.id >= mTaskCount) {
+            return null;
+        }
+        int thumbnailWidth = (width > 0) ? Math.min(width, mThumbnailWidth) : mThumbnailWidth;
+        int thumbnailHeight = Math.max(1, mThumbnailHeight * thumbnailWidth / mThumbnailWidth);
+        Bitmap thumbnail = (mBitmapPool != null) ?
+                mBitmapPool.get(thumbnailWidth, thumbnailHeight, Bitmap.Config.ARGB_8888) : null;
+        if (thumbnail == null) {
+            thumbnail = Bitmap.createBitmap(thumbnailWidth, thumbnailHeight,
+                    Bitmap.Config.ARGB_8888);
+        }
+        Canvas c = new Canvas(thumbnail);
+        c.drawColor(getColor(key.id, 0.35f, 0.95f));
+        Paint paint = new Paint();
+        paint.setColor(getColor(getPackageIndex(key.id) * 7919, 0.7f, 0.7f));
+        c.drawRect(0, 0, thumbnailWidth, thumbnailHeight * HeaderHeightFraction, paint);
+        // Every pixel is opaque, so the thumbnail takes the opaque paths like a real screenshot
+        thumbnail.setHasAlpha(false);
+        return thumbnail;
+    }
+
+    /**
+     * Returns the affiliation of the task at an index, which is positive as zero is no affiliation,
+     * and below the ids the stack gives the unaffiliated tasks.  It wraps around in stacks with
+     * more groups than that, which are paged and so not grouped anyway.
+     */
+    int getAffiliation(int index) {
+        return (index / mTasksPerGroup) % (ProfileStack.IndividualTaskIdOffset - 1) + 1;
+    }
+
+    /** Returns the package of the task at an index */
+    int getPackageIndex(int index) {
+        return (index / mTasksPerGroup) % mComponents.length;
+    }
+
+    /** Returns an opaque color whose hue is picked from a seed */
+    static int getColor(int seed, float saturation, float value) {
+        int hash = seed * 0x9e3779b1;
+        float hue = ((hash >>> 8) % 360);
+        return Color.HSVToColor(new float[] { hue, saturation, value });
+    }
+}
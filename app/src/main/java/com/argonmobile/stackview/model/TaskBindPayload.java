@@ -0,0 +1,38 @@
+package com.argonmobile.stackview.model;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Matrix;
+import android.graphics.RectF;
+import android.graphics.Shader;
+
+/**
+ * The thumbnail data a task view binds to, prepared on the loader threads so that binding on the
+ * main thread only assigns fields: the thumbnail, and a shader that draws it scaled to the size of
+ * the thumbnail view.  A payload is not changed once created, and is only valid while its task
+ * still has the same thumbnail and the view still has the same size.
+ */
+public class TaskBindPayload {
+    public final Bitmap thumbnail;
+    public final BitmapShader thumbnailShader;
+    // The size of the thumbnail view the shader is scaled to
+    public final int viewWidth;
+    public final int viewHeight;
+
+    TaskBindPayload(Bitmap thumbnail, int viewWidth, int viewHeight) {
+        this.thumbnail = thumbnail;
+        this.viewWidth = viewWidth;
+        this.viewHeight = viewHeight;
+        thumbnailShader = new BitmapShader(thumbnail, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+        Matrix scaleMatrix = new Matrix();
+        scaleMatrix.setRectToRect(new RectF(0, 0, thumbnail.getWidth(), thumbnail.getHeight()),
+                new RectF(0, 0, viewWidth, viewHeight), Matrix.ScaleToFit.FILL);
+        thumbnailShader.setLocalMatrix(scaleMatrix);
+    }
+
+    /** Returns whether this payload can be bound for a thumbnail to a view of a size */
+    public boolean isValidFor(Bitmap thumbnail, int viewWidth, int viewHeight) {
+        return this.thumbnail == thumbnail && this.viewWidth == viewWidth &&
+                this.viewHeight == viewHeight;
+    }
+}
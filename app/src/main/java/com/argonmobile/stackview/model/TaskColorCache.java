@@ -0,0 +1,99 @@
+package com.argonmobile.stackview.model;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.util.LruCache;
+
+import com.argonmobile.stackview.util.Utilities;
+
+/**
+ * A cache of the header colors of the tasks, keyed by task id.  The primary color of a task is
+ * the average color of the top of its thumbnail, where the app bar usually is, and the text on it
+ * is light if white has enough contrast against it.  Colors are computed on the loader threads
+ * right after the thumbnails are loaded, so that binding a header only copies them.
+ */
+public class TaskColorCache {
+
+    // The minimum contrast of white text against the primary color to use light text on it
+    static final float MinLightTextContrast = 3f;
+    // The fraction of the thumbnail height sampled from its top, and the number of rows and
+    // columns of pixels sampled there
+    static final float SampledHeightFraction = 1f / 16;
+    static final int SampledRowCount = 4;
+    static final int SampledColumnCount = 32;
+
+    /** The header colors of a task */
+    public static class Entry {
+        public final int primaryColor;
+        public final boolean useLightOnPrimaryColor;
+
+        Entry(int primaryColor, boolean useLightOnPrimaryColor) {
+            this.primaryColor = primaryColor;
+            this.useLightOnPrimaryColor = useLightOnPrimaryColor;
+        }
+    }
+
+    final LruCache<Integer, Entry> mEntries;
+
+    public TaskColorCache(int maxEntries) {
+        mEntries = new LruCache<Integer, Entry>(maxEntries);
+    }
+
+    /** Returns the colors of a task if they are computed, or null otherwise */
+    public Entry get(Profile.TaskKey key) {
+        return mEntries.get(key.id);
+    }
+
+    /**
+     * Returns the colors of a task, computing them from its thumbnail if they are not cached.
+     * This reads the pixels of the thumbnail, so it is only called on the loader threads; the
+     * main thread only reads the cached colors with {@link #get}.
+     */
+    public Entry compute(Profile.TaskKey key, Bitmap thumbnail) {
+        Entry entry = mEntries.get(key.id);
+        if (entry != null) {
+            return entry;
+        }
+        int primaryColor = computePrimaryColor(thumbnail);
+        entry = new Entry(primaryColor, Utilities.computeContrastBetweenColors(primaryColor,
+                Color.WHITE) > MinLightTextContrast);
+        mEntries.put(key.id, entry);
+        return entry;
+    }
+
+    /** Removes the colors of a task */
+    public void remove(Profile.TaskKey key) {
+        mEntries.remove(key.id);
+    }
+
+    /** Returns the average color of a sample of the pixels at the top of a thumbnail */
+    static int computePrimaryColor(Bitmap thumbnail) {
+        int width = thumbnail.getWidth();
+        int sampledHeight = Math.max(1, (int) (thumbnail.getHeight() * SampledHeightFraction));
+        int rowCount = Math.min(SampledRowCount, sampledHeight);
+        int columnStep = Math.max(1, width / SampledColumnCount);
+        int[] row = new int[width];
+        long red = 0;
+        long green = 0;
+        long blue = 0;
+        int count = 0;
+        for (int i = 0; i < rowCount; i++) {
+            int y = i * sampledHeight / rowCount;
+            thumbnail.getPixels(row, 0, width, 0, y, width, 1);
+            for (int x = 0; x < width; x += columnStep) {
+                int pixel = row[x];
+                red += Color.red(pixel);
+                green += Color.green(pixel);
+                blue += Color.blue(pixel);
+                count++;
+            }
+        }
+        return Color.rgb((int) (red / count), (int) (green / count), (int) (blue / count));
+    }
+
+    @Override
+    public String toString() {
+        return "TaskColorCache: " + mEntries.size() + "/" + mEntries.maxSize() +
+                " tasks, hits: " + mEntries.hitCount() + " misses: " + mEntries.missCount();
+    }
+}
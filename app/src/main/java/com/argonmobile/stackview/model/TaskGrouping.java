@@ -0,0 +1,95 @@
+package com.argonmobile.stackview.model;
+
+import java.util.ArrayList;
+
+/**
+ * Represents a grouping of tasks within a stack, kept in stack order.  The front-most task is
+ * tracked as tasks come and go, so checking for it is constant time.
+ */
+public class TaskGrouping {
+
+    int affiliation;
+
+    Profile.TaskKey mFrontMostTaskKey;
+    ArrayList<Profile.TaskKey> mTaskKeys = new ArrayList<Profile.TaskKey>();
+    TaskIdIndex mTaskKeyIndices = new TaskIdIndex(4);
+    // The number of leading task keys whose entries in mTaskKeyIndices are up to date
+    int mTaskKeyIndicesValidCount;
+
+    /** Creates a group with a specified affiliation. */
+    public TaskGrouping(int affiliation) {
+        this.affiliation = affiliation;
+    }
+
+    /** Adds a new task to the front of this group */
+    void addTask(Profile t) {
+        int index = mTaskKeys.size();
+        mTaskKeys.add(t.key);
+        mTaskKeyIndices.put(t.key.id, index);
+        if (mTaskKeyIndicesValidCount == index) {
+            mTaskKeyIndicesValidCount++;
+        }
+        mFrontMostTaskKey = t.key;
+        t.setGroup(this);
+    }
+
+    /** Removes a task from this group */
+    void removeTask(Profile t) {
+        int index = indexOf(t);
+        if (index < 0) {
+            return;
+        }
+        mTaskKeys.remove(index);
+        mTaskKeyIndices.remove(t.key.id);
+        // The indices of the tasks in front of the removed one are off by one until next read
+        mTaskKeyIndicesValidCount = Math.min(mTaskKeyIndicesValidCount, index);
+        mFrontMostTaskKey = mTaskKeys.isEmpty() ? null : mTaskKeys.get(mTaskKeys.size() - 1);
+        if (t.group == this) {
+            t.setGroup(null);
+        }
+    }
+
+    /** Returns the affiliation of this group */
+    public int getAffiliation() {
+        return affiliation;
+    }
+
+    /** Returns the key of the front-most task in this group */
+    public Profile.TaskKey getFrontMostTaskKey() {
+        return mFrontMostTaskKey;
+    }
+
+    /** Returns whether a task is the front-most task in this group */
+    public boolean isFrontMostTask(Profile t) {
+        return (t.key == mFrontMostTaskKey);
+    }
+
+    /** Finds the index of a given task in this group, or -1 if it is not in the group */
+    public int indexOf(Profile t) {
+        int index = mTaskKeyIndices.get(t.key.id, -1);
+        if (index >= mTaskKeyIndicesValidCount) {
+            int taskCount = mTaskKeys.size();
+            for (int i = mTaskKeyIndicesValidCount; i < taskCount; i++) {
+                mTaskKeyIndices.put(mTaskKeys.get(i).id, i);
+            }
+            mTaskKeyIndicesValidCount = taskCount;
+            index = mTaskKeyIndices.get(t.key.id, -1);
+        }
+        return index;
+    }
+
+    /** Returns whether a task is in this group. */
+    public boolean containsTask(Profile t) {
+        return mTaskKeyIndices.containsKey(t.key.id);
+    }
+
+    /** Returns the number of tasks in this group. */
+    public int getTaskCount() {
+        return mTaskKeys.size();
+    }
+
+    @Override
+    public String toString() {
+        return "TaskGrouping affiliation: " + affiliation + " tasks: " + mTaskKeys.size();
+    }
+}
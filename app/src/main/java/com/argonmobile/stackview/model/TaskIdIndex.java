@@ -0,0 +1,143 @@
+package com.argonmobile.stackview.model;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing map from task ids to int values.  Lookups neither box the keys and values
+ * nor allocate any per-entry objects, and removals shift the following entries back instead of
+ * leaving tombstones behind.  Not thread safe.
+ */
+public class TaskIdIndex {
+
+    static final int MinCapacity = 16;
+
+    int[] mKeys;
+    int[] mValues;
+    boolean[] mUsed;
+    int mSize;
+    int mMask;
+
+    public TaskIdIndex() {
+        this(MinCapacity);
+    }
+
+    public TaskIdIndex(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    /** Returns the value for the specified task id, or the given default if there is none */
+    public int get(int taskId, int valueIfNotFound) {
+        int slot = findSlot(taskId);
+        return mUsed[slot] ? mValues[slot] : valueIfNotFound;
+    }
+
+    /** Returns whether there is a value for the specified task id */
+    public boolean containsKey(int taskId) {
+        return mUsed[findSlot(taskId)];
+    }
+
+    /** Sets the value for the specified task id */
+    public void put(int taskId, int value) {
+        int slot = findSlot(taskId);
+        if (mUsed[slot]) {
+            mValues[slot] = value;
+            return;
+        }
+        mKeys[slot] = taskId;
+        mValues[slot] = value;
+        mUsed[slot] = true;
+        mSize++;
+        // Keep the load factor under 1/2 so that probe sequences stay short
+        if (mSize * 2 > mKeys.length) {
+            rehash(mKeys.length * 2);
+        }
+    }
+
+    /** Removes the value for the specified task id, returning whether there was one */
+    public boolean remove(int taskId) {
+        int slot = findSlot(taskId);
+        if (!mUsed[slot]) {
+            return false;
+        }
+        mUsed[slot] = false;
+        mSize--;
+
+        // Shift back any following entries in the probe sequence that would no longer be
+        // reachable through the freed slot
+        int hole = slot;
+        int i = (slot + 1) & mMask;
+        while (mUsed[i]) {
+            int home = hash(mKeys[i]);
+            boolean reachable = (hole <= i) ? (hole < home && home <= i) : (hole < home || home <= i);
+            if (!reachable) {
+                mKeys[hole] = mKeys[i];
+                mValues[hole] = mValues[i];
+                mUsed[hole] = true;
+                mUsed[i] = false;
+                hole = i;
+            }
+            i = (i + 1) & mMask;
+        }
+        return true;
+    }
+
+    /** Removes all the entries */
+    public void clear() {
+        if (mSize > 0) {
+            Arrays.fill(mUsed, false);
+            mSize = 0;
+        }
+    }
+
+    /** Returns the number of entries */
+    public int size() {
+        return mSize;
+    }
+
+    /** Returns the slot holding the task id, or the empty slot where it would be inserted */
+    private int findSlot(int taskId) {
+        int i = hash(taskId);
+        while (mUsed[i] && mKeys[i] != taskId) {
+            i = (i + 1) & mMask;
+        }
+        return i;
+    }
+
+    /** Spreads the task id bits, since ids are usually small and sequential */
+    private int hash(int taskId) {
+        int h = taskId * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mMask;
+    }
+
+    private void rehash(int capacity) {
+        int[] keys = mKeys;
+        int[] values = mValues;
+        boolean[] used = mUsed;
+        allocate(capacity);
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) {
+                int slot = findSlot(keys[i]);
+                mKeys[slot] = keys[i];
+                mValues[slot] = values[i];
+                mUsed[slot] = true;
+                mSize++;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new int[capacity];
+        mValues = new int[capacity];
+        mUsed = new boolean[capacity];
+        mMask = capacity - 1;
+        mSize = 0;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MinCapacity;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
@@ -0,0 +1,167 @@
+package com.argonmobile.stackview.model;
+
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * An index of the trigrams in the activity labels of the tasks in a stack, used to find the tasks
+ * whose labels contain a query without looking at every label.  Matching is case insensitive.
+ * Labels are indexed as they are when the task is added, so a task whose label changes should be
+ * removed and added again.
+ */
+public class TaskLabelIndex {
+
+    static final int GramLength = 3;
+    // The candidates of a query with a trigram that is in no label, which is never written to
+    static final TaskIdIndex NoCandidates = new TaskIdIndex(0);
+
+    // The ids of the tasks whose labels contain each trigram.  Postings are only created for the
+    // trigrams of indexed labels, and are never dropped once created, so that the filters holding
+    // on to them see the tasks added later.
+    HashMap<String, TaskIdIndex> mPostings = new HashMap<String, TaskIdIndex>();
+    // The number of postings created, so that filters whose query had a trigram with no posting
+    // know when to look it up again
+    int mPostingCount;
+    // The label each task was indexed with, so that it can be removed again
+    HashMap<Profile.TaskKey, String> mIndexedLabels = new HashMap<Profile.TaskKey, String>();
+
+    /** Indexes the label of a task, unless it is already indexed with the same label */
+    void add(Profile t) {
+        String label = normalize(t.activityLabel);
+        String indexedLabel = mIndexedLabels.get(t.key);
+        if (indexedLabel != null) {
+            if (indexedLabel.equals(label)) {
+                return;
+            }
+            remove(t);
+        }
+        mIndexedLabels.put(t.key, label);
+        int gramCount = label.length() - GramLength + 1;
+        for (int i = 0; i < gramCount; i++) {
+            getOrCreatePosting(label.substring(i, i + GramLength)).put(t.key.id, 0);
+        }
+    }
+
+    /** Removes a task from the index */
+    void remove(Profile t) {
+        String label = mIndexedLabels.remove(t.key);
+        if (label == null) {
+            return;
+        }
+        int gramCount = label.length() - GramLength + 1;
+        for (int i = 0; i < gramCount; i++) {
+            String gram = label.substring(i, i + GramLength);
+            TaskIdIndex posting = mPostings.get(gram);
+            if (posting != null) {
+                posting.remove(t.key.id);
+            }
+        }
+    }
+
+    /** Returns the number of indexed tasks */
+    public int size() {
+        return mIndexedLabels.size();
+    }
+
+    /**
+     * Returns the smallest set of task ids that all the matches of a query are in, NoCandidates if
+     * a trigram of the query is in no label, or null if the query is too short to be looked up.
+     * Queries never add postings, so they do not grow the index.
+     */
+    TaskIdIndex getCandidates(String query) {
+        if (query.length() < GramLength) {
+            return null;
+        }
+        TaskIdIndex candidates = null;
+        int gramCount = query.length() - GramLength + 1;
+        for (int i = 0; i < gramCount; i++) {
+            TaskIdIndex posting = mPostings.get(query.substring(i, i + GramLength));
+            if (posting == null) {
+                return NoCandidates;
+            }
+            if (candidates == null || posting.size() < candidates.size()) {
+                candidates = posting;
+            }
+        }
+        return candidates;
+    }
+
+    /** Returns the posting for a trigram of a label being indexed, creating it if needed */
+    private TaskIdIndex getOrCreatePosting(String gram) {
+        TaskIdIndex posting = mPostings.get(gram);
+        if (posting == null) {
+            posting = new TaskIdIndex(4);
+            mPostings.put(gram, posting);
+            mPostingCount++;
+        }
+        return posting;
+    }
+
+    /** Returns a filter accepting the tasks whose labels contain a query */
+    public LabelFilter newFilter(String query) {
+        return new LabelFilter(this, normalize(query));
+    }
+
+    static String normalize(String label) {
+        return (label == null) ? "" : label.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * A task filter accepting the tasks whose labels contain a query.  The candidates are looked
+     * up in the index once, and each task is then checked against the rarest trigram of the query
+     * before its label is compared.
+     */
+    public static class LabelFilter implements TaskFilter {
+        final TaskLabelIndex mIndex;
+        final String mQuery;
+        TaskIdIndex mCandidates;
+        // The number of postings in the index when the candidates were looked up
+        int mPostingCount;
+
+        LabelFilter(TaskLabelIndex index, String query) {
+            mIndex = index;
+            mQuery = query;
+            mCandidates = index.getCandidates(query);
+            mPostingCount = index.mPostingCount;
+        }
+
+        /** Returns the query of this filter */
+        public String getQuery() {
+            return mQuery;
+        }
+
+        /**
+         * Returns whether every task accepted by this filter is also accepted by another one, in
+         * which case only the tasks the other filter accepted have to be checked again.
+         */
+        boolean narrows(TaskFilter filter) {
+            return (filter instanceof LabelFilter) &&
+                    mQuery.contains(((LabelFilter) filter).mQuery);
+        }
+
+        @Override
+        public boolean acceptTask(Profile t, int index) {
+            if (mCandidates == NoCandidates && mPostingCount != mIndex.mPostingCount) {
+                // A label added since may have the trigram that had no posting
+                mCandidates = mIndex.getCandidates(mQuery);
+                mPostingCount = mIndex.mPostingCount;
+            }
+            if (mCandidates != null && !mCandidates.containsKey(t.key.id)) {
+                return false;
+            }
+            String label = t.activityLabel;
+            if (label == null) {
+                return mQuery.isEmpty();
+            }
+            // Compare in place rather than allocating a lower case copy of every label
+            int queryLength = mQuery.length();
+            int lastOffset = label.length() - queryLength;
+            for (int i = 0; i <= lastOffset; i++) {
+                if (label.regionMatches(true, i, mQuery, 0, queryLength)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,575 @@
+package com.argonmobile.stackview.model;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import android.util.LruCache;
+import android.util.SparseIntArray;
+
+import com.argonmobile.stackview.util.Utilities;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A two tier cache of task thumbnails, keyed by task id.  The memory tier holds decoded bitmaps
+ * up to a number of bytes, and the disk tier holds the thumbnails encoded in files under a cache
+ * directory, also up to a number of bytes.  Both tiers evict the least recently used thumbnails
+ * first, and the files are touched when they are read so that the order survives a restart.
+ *
+ * Thumbnails are requested and cached at the width they are drawn at.  One in memory that is not
+ * that wide is treated as missing.  The files of the disk tier are named by the width of their
+ * thumbnails, and only the ones of the current width are kept, so the tier starts over when the
+ * width changes.
+ *
+ * Opaque thumbnails can be kept as RGB_565, at half the bytes of ARGB_8888.  The thumbnails of
+ * tasks far from the visible ones can also be compacted: they leave the memory tier for a tier of
+ * compressed bytes, which are decoded again on demand, much faster than reading the disk.
+ *
+ * Alongside the memory tier, a tiny preview of each thumbnail put in memory is kept, which costs a
+ * few kilobytes and so stays around long after the thumbnail is evicted.  Previews can be shown
+ * right away while the thumbnails are read from disk or loaded again.
+ *
+ * The memory tier holds a reference to each of its thumbnails in a bitmap pool, and the bitmaps
+ * it evicts return to the pool once nothing else references them.  Disk reads are decoded into
+ * pooled bitmaps when there is one of the right size.
+ *
+ * The cache can be used from any thread.  Reading from or writing to the disk tier blocks, so it
+ * should be done on the loader threads.
+ */
+public class ThumbnailCache {
+    static final String TAG = "ThumbnailCache";
+
+    static final String FileSuffix = ".thumb";
+    static final int JpegQuality = 90;
+
+    /** The memory tier, which is sized by the bytes of the bitmaps it holds */
+    class MemoryCache extends LruCache<Integer, Bitmap> {
+        MemoryCache(int maxSizeBytes) {
+            super(maxSizeBytes);
+        }
+
+        @Override
+        protected int sizeOf(Integer key, Bitmap value) {
+            return value.getByteCount();
+        }
+
+        @Override
+        protected void entryRemoved(boolean evicted, Integer key, Bitmap oldValue,
+                Bitmap newValue) {
+            mBitmapPool.release(oldValue);
+        }
+    }
+
+    final BitmapPool mBitmapPool;
+    final MemoryCache mMemoryCache;
+    final int mPreviewWidth;
+    final LruCache<Integer, Bitmap> mPreviewCache;
+    // The compressed tier, sized by the bytes it holds
+    final LruCache<Integer, byte[]> mCompressedCache;
+    final boolean mUseRgb565ForOpaque;
+    // The last known index of the task of each thumbnail, to tell how far it is from the visible
+    // tasks, and the number of thumbnails compacted, guarded by mTaskIndices
+    final SparseIntArray mTaskIndices = new SparseIntArray();
+    int mCompactionCount;
+
+    // The disk tier, guarded by mDiskIndex.  The index maps the task ids to the sizes of their
+    // files in access order, and is read from the cache directory on first use.
+    final File mDiskCacheDir;
+    final long mMaxDiskSizeBytes;
+    final LinkedHashMap<Integer, Long> mDiskIndex = new LinkedHashMap<Integer, Long>(16, 0.75f, true);
+    // The width of the thumbnails in the disk tier, which is not used until it is known
+    int mDiskWidth;
+    boolean mDiskIndexLoaded;
+    long mDiskSizeBytes;
+    int mDiskHitCount;
+    int mDiskMissCount;
+    int mDiskEvictionCount;
+
+    public ThumbnailCache(BitmapPool bitmapPool, int maxMemorySizeBytes, int previewWidth,
+            int maxPreviewSizeBytes, int maxCompressedSizeBytes, boolean useRgb565ForOpaque,
+            File diskCacheDir, long maxDiskSizeBytes) {
+        mBitmapPool = bitmapPool;
+        mMemoryCache = new MemoryCache(maxMemorySizeBytes);
+        mPreviewWidth = previewWidth;
+        mPreviewCache = new LruCache<Integer, Bitmap>(maxPreviewSizeBytes) {
+            @Override
+            protected int sizeOf(Integer key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+        mCompressedCache = new LruCache<Integer, byte[]>(maxCompressedSizeBytes) {
+            @Override
+            protected int sizeOf(Integer key, byte[] value) {
+                return value.length;
+            }
+        };
+        mUseRgb565ForOpaque = useRgb565ForOpaque;
+        mDiskCacheDir = diskCacheDir;
+        mMaxDiskSizeBytes = maxDiskSizeBytes;
+    }
+
+    /**
+     * Returns the thumbnail of a task held in memory at a width, or null if there is none.  A
+     * width of zero or less matches any thumbnail.  The caller is given a reference to the
+     * thumbnail in the bitmap pool, which it has to release.
+     */
+    public Bitmap getFromMemory(Profile.TaskKey key, int width) {
+        // Acquire under the pool lock so that an eviction can not pool the bitmap in between
+        synchronized (mBitmapPool) {
+            Bitmap thumbnail = mMemoryCache.get(key.id);
+            if (thumbnail == null || (width > 0 && thumbnail.getWidth() != width)) {
+                return null;
+            }
+            mBitmapPool.acquire(thumbnail);
+            return thumbnail;
+        }
+    }
+
+    /**
+     * Returns the thumbnail of a task at a width from memory, or decodes it from the compressed
+     * tier or from disk if it is only there, keeping it in memory afterwards.  Returns null if no
+     * tier has it, or if the decode is cancelled through its options.  The caller is given a
+     * reference to the thumbnail in the bitmap pool, which it has to release.
+     */
+    public Bitmap get(Profile.TaskKey key, int width, BitmapFactory.Options opts) {
+        Bitmap thumbnail = getFromMemory(key, width);
+        if (thumbnail != null) {
+            return thumbnail;
+        }
+        thumbnail = getFromCompressed(key, width, opts);
+        if (thumbnail == null && !opts.mCancel) {
+            thumbnail = getFromDisk(key, width, opts);
+        }
+        if (thumbnail != null) {
+            mBitmapPool.acquire(thumbnail);
+            put(key, thumbnail);
+        }
+        return thumbnail;
+    }
+
+    /** Adds the thumbnail of a task to the memory tier, and keeps a preview of it */
+    public void put(Profile.TaskKey key, Bitmap thumbnail) {
+        mBitmapPool.acquire(thumbnail);
+        mMemoryCache.put(key.id, thumbnail);
+        // A thumbnail no wider than a preview would be returned as its own preview and pooled
+        // later, so it gets none
+        if (thumbnail.getWidth() > mPreviewWidth && mPreviewCache.get(key.id) == null) {
+            int height = Math.max(1, Math.round((float) thumbnail.getHeight() * mPreviewWidth /
+                    thumbnail.getWidth()));
+            mPreviewCache.put(key.id, Bitmap.createScaledBitmap(thumbnail, mPreviewWidth, height,
+                    true));
+        }
+    }
+
+    /**
+     * Returns a tiny preview of the thumbnail of a task, to stretch over the thumbnail bounds
+     * while the thumbnail loads, or null if there is none.  Previews are not pooled, so the
+     * caller does not have to release them.
+     */
+    public Bitmap getPreview(Profile.TaskKey key) {
+        return mPreviewCache.get(key.id);
+    }
+
+    /**
+     * Decodes the thumbnail of a task from the compressed tier, sampled and scaled to a width, or
+     * returns null if it is not there.
+     */
+    Bitmap getFromCompressed(Profile.TaskKey key, int width, BitmapFactory.Options opts) {
+        byte[] data = mCompressedCache.get(key.id);
+        if (data == null) {
+            return null;
+        }
+        Bitmap thumbnail = decode(null, data, width, opts);
+        if (thumbnail == null && !opts.mCancel) {
+            mCompressedCache.remove(key.id);
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Decodes the thumbnail of a task from the disk tier if it is there at a width, or returns
+     * null.  The decode can be stopped early by calling
+     * {@link BitmapFactory.Options#requestCancelDecode} on its options from another thread.
+     */
+    Bitmap getFromDisk(Profile.TaskKey key, int width, BitmapFactory.Options opts) {
+        File file;
+        synchronized (mDiskIndex) {
+            ensureDiskIndexLoaded();
+            if (width != mDiskWidth || mDiskIndex.get(key.id) == null) {
+                mDiskMissCount++;
+                return null;
+            }
+            file = getFile(key.id, width);
+        }
+        Bitmap thumbnail = decode(file, null, width, opts);
+        if (thumbnail == null) {
+            if (opts.mCancel) {
+                // The decode was stopped, so the file is still good
+                return null;
+            }
+            // The file is gone or corrupt, so drop it from the index
+            removeFromDisk(key);
+            synchronized (mDiskIndex) {
+                mDiskMissCount++;
+            }
+            return null;
+        }
+        synchronized (mDiskIndex) {
+            mDiskHitCount++;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return thumbnail;
+    }
+
+    /**
+     * Decodes a thumbnail from a file, or from compressed bytes if they are given, sampled and
+     * scaled to a width, into a pooled bitmap if there is one of the right size.  Returns null if
+     * it could not be decoded or the decode was cancelled.
+     */
+    private Bitmap decode(File file, byte[] data, int width, BitmapFactory.Options opts) {
+        // Read the size first, so that the pixels are only decoded if they are wide enough
+        opts.inJustDecodeBounds = true;
+        opts.outWidth = -1;
+        decodeRaw(file, data, opts);
+        if (opts.mCancel || opts.outWidth <= 0) {
+            return null;
+        }
+        opts.inJustDecodeBounds = false;
+        opts.inSampleSize = Utilities.calculateInSampleSize(opts.outWidth, width);
+        opts.inMutable = true;
+        // Thumbnails are only stored as JPEG when they are opaque
+        opts.inPreferredConfig = (mUseRgb565ForOpaque && "image/jpeg".equals(opts.outMimeType)) ?
+                Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        opts.inBitmap = mBitmapPool.get(
+                (opts.outWidth + opts.inSampleSize - 1) / opts.inSampleSize,
+                (opts.outHeight + opts.inSampleSize - 1) / opts.inSampleSize,
+                opts.inPreferredConfig);
+        Bitmap thumbnail;
+        try {
+            thumbnail = decodeRaw(file, data, opts);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap could not be decoded into, so give it back and allocate
+            mBitmapPool.put(opts.inBitmap);
+            opts.inBitmap = null;
+            thumbnail = decodeRaw(file, data, opts);
+        }
+        if (thumbnail == null) {
+            if (opts.inBitmap != null) {
+                mBitmapPool.put(opts.inBitmap);
+            }
+            return null;
+        }
+        Bitmap scaled = mBitmapPool.scaleToWidth(thumbnail, width);
+        if (scaled != thumbnail) {
+            mBitmapPool.put(thumbnail);
+        }
+        return scaled;
+    }
+
+    private static Bitmap decodeRaw(File file, byte[] data, BitmapFactory.Options opts) {
+        return (data != null) ? BitmapFactory.decodeByteArray(data, 0, data.length, opts) :
+                BitmapFactory.decodeFile(file.getPath(), opts);
+    }
+
+    /** Records the index of the task of a thumbnail in its stack */
+    public void setTaskIndex(Profile.TaskKey key, int taskIndex) {
+        synchronized (mTaskIndices) {
+            mTaskIndices.put(key.id, taskIndex);
+        }
+    }
+
+    /**
+     * Compacts the least recently used thumbnail in memory whose task is more than a distance
+     * away from a range of task indices, moving it to the compressed tier, and returns whether
+     * there was one.  This compresses a bitmap, so it should be done on the loader threads.
+     */
+    public boolean compactColdEntry(int frontMostIndex, int backMostIndex, int coldDistance) {
+        int coldId = -1;
+        Bitmap thumbnail = null;
+        Map<Integer, Bitmap> entries = mMemoryCache.snapshot();
+        for (Map.Entry<Integer, Bitmap> entry : entries.entrySet()) {
+            int taskIndex;
+            synchronized (mTaskIndices) {
+                taskIndex = mTaskIndices.get(entry.getKey(), -1);
+            }
+            if (taskIndex < 0 || (taskIndex <= frontMostIndex + coldDistance &&
+                    taskIndex >= backMostIndex - coldDistance)) {
+                continue;
+            }
+            // Hold on to it under the pool lock, so that an eviction can not pool it in between
+            synchronized (mBitmapPool) {
+                if (mMemoryCache.get(entry.getKey()) == entry.getValue()) {
+                    coldId = entry.getKey();
+                    thumbnail = entry.getValue();
+                    mBitmapPool.acquire(thumbnail);
+                    break;
+                }
+            }
+        }
+        if (thumbnail == null) {
+            return false;
+        }
+
+        boolean compacted = mCompressedCache.get(coldId) != null;
+        if (!compacted) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            if (compress(thumbnail, out)) {
+                mCompressedCache.put(coldId, out.toByteArray());
+                compacted = true;
+            }
+        }
+        if (compacted) {
+            synchronized (mBitmapPool) {
+                // Unless it was replaced while it was compressed
+                if (mMemoryCache.get(coldId) == thumbnail) {
+                    mMemoryCache.remove(coldId);
+                }
+            }
+            synchronized (mTaskIndices) {
+                mCompactionCount++;
+            }
+        }
+        mBitmapPool.release(thumbnail);
+        return compacted;
+    }
+
+    /**
+     * Writes the thumbnail of a task to the disk tier, replacing any it had, and evicts the least
+     * recently used files to stay within the size of the tier.  Opaque thumbnails are stored as
+     * JPEG and the others as PNG.  Thumbnails that are not of the width of the tier are skipped.
+     */
+    public void putOnDisk(Profile.TaskKey key, Bitmap thumbnail) {
+        int width = thumbnail.getWidth();
+        synchronized (mDiskIndex) {
+            ensureDiskIndexLoaded();
+            if (width != mDiskWidth) {
+                return;
+            }
+        }
+        File file = getFile(key.id, width);
+        File tmpFile = new File(file.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            if (!mDiskCacheDir.isDirectory() && !mDiskCacheDir.mkdirs()) {
+                return;
+            }
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(tmpFile));
+            boolean compressed;
+            try {
+                compressed = compress(thumbnail, out);
+            } finally {
+                out.close();
+            }
+            if (!compressed || !tmpFile.renameTo(file)) {
+                tmpFile.delete();
+                return;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write the thumbnail of task " + key.id, e);
+            tmpFile.delete();
+            return;
+        }
+        long size = file.length();
+        synchronized (mDiskIndex) {
+            if (width != mDiskWidth) {
+                // The width changed while the file was written
+                file.delete();
+                return;
+            }
+            Long previousSize = mDiskIndex.put(key.id, size);
+            if (previousSize != null) {
+                mDiskSizeBytes -= previousSize;
+            }
+            mDiskSizeBytes += size;
+            trimDiskToSize(mMaxDiskSizeBytes);
+        }
+    }
+
+    /** Compresses a thumbnail as JPEG if it is opaque and as PNG otherwise */
+    private static boolean compress(Bitmap thumbnail, OutputStream out) {
+        return thumbnail.hasAlpha() ?
+                thumbnail.compress(Bitmap.CompressFormat.PNG, 100, out) :
+                thumbnail.compress(Bitmap.CompressFormat.JPEG, JpegQuality, out);
+    }
+
+    /** Removes the thumbnail of a task from all the tiers */
+    public void remove(Profile.TaskKey key) {
+        mMemoryCache.remove(key.id);
+        mPreviewCache.remove(key.id);
+        mCompressedCache.remove(key.id);
+        synchronized (mTaskIndices) {
+            mTaskIndices.delete(key.id);
+        }
+        removeFromDisk(key);
+    }
+
+    /** Removes the thumbnail of a task from the disk tier */
+    void removeFromDisk(Profile.TaskKey key) {
+        synchronized (mDiskIndex) {
+            ensureDiskIndexLoaded();
+            Long size = mDiskIndex.remove(key.id);
+            if (size != null) {
+                mDiskSizeBytes -= size;
+                getFile(key.id, mDiskWidth).delete();
+            }
+        }
+    }
+
+    /**
+     * Sets the width the thumbnails are cached at.  When it changes, the compressed thumbnails are
+     * dropped, and so are the files of the disk tier the next time the tier is used, since they
+     * are no longer asked for.
+     */
+    public void setThumbnailWidth(int width) {
+        synchronized (mDiskIndex) {
+            if (width == mDiskWidth) {
+                return;
+            }
+            mDiskWidth = width;
+            mDiskIndex.clear();
+            mDiskSizeBytes = 0;
+            mDiskIndexLoaded = false;
+        }
+        mCompressedCache.evictAll();
+    }
+
+    /** Evicts all the thumbnails in memory, leaving the ones on disk */
+    public void evictAllFromMemory() {
+        mMemoryCache.evictAll();
+    }
+
+    /**
+     * Evicts the least recently used thumbnails in memory until they take no more than a size,
+     * and returns the number of bytes evicted
+     */
+    public int trimMemoryToSize(int maxSizeBytes) {
+        int size = mMemoryCache.size();
+        mMemoryCache.trimToSize(maxSizeBytes);
+        return size - mMemoryCache.size();
+    }
+
+    /** Evicts all the previews, and returns the number of bytes evicted */
+    public int evictAllPreviews() {
+        int size = mPreviewCache.size();
+        mPreviewCache.evictAll();
+        return size;
+    }
+
+    /** Evicts all the compressed thumbnails, and returns the number of bytes evicted */
+    public int evictAllCompressed() {
+        int size = mCompressedCache.size();
+        mCompressedCache.evictAll();
+        return size;
+    }
+
+    /** Returns the number of bytes the thumbnails in memory may take */
+    public int getMaxMemorySize() {
+        return mMemoryCache.maxSize();
+    }
+
+    /** Returns the number of bytes of the thumbnails in memory */
+    public int getMemorySize() {
+        return mMemoryCache.size();
+    }
+
+    /** Returns the number of bytes of the thumbnails on disk */
+    public long getDiskSize() {
+        synchronized (mDiskIndex) {
+            return mDiskSizeBytes;
+        }
+    }
+
+    /** Evicts the least recently used files until the disk tier is no bigger than a size */
+    private void trimDiskToSize(long maxSizeBytes) {
+        Iterator<Map.Entry<Integer, Long>> iter = mDiskIndex.entrySet().iterator();
+        while (mDiskSizeBytes > maxSizeBytes && iter.hasNext()) {
+            Map.Entry<Integer, Long> entry = iter.next();
+            iter.remove();
+            mDiskSizeBytes -= entry.getValue();
+            mDiskEvictionCount++;
+            getFile(entry.getKey(), mDiskWidth).delete();
+        }
+    }
+
+    /**
+     * Reads the files of the current width in the cache directory into the index, least recently
+     * used first, and deletes the files of other widths
+     */
+    private void ensureDiskIndexLoaded() {
+        if (mDiskIndexLoaded || mDiskWidth <= 0) {
+            return;
+        }
+        mDiskIndexLoaded = true;
+        File[] files = mDiskCacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsModified = lhs.lastModified();
+                long rhsModified = rhs.lastModified();
+                return (lhsModified < rhsModified) ? -1 : ((lhsModified == rhsModified) ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(FileSuffix)) {
+                // Left over from a write that did not complete
+                file.delete();
+                continue;
+            }
+            try {
+                // Named by the task id and the width
+                String[] parts = name.substring(0, name.length() - FileSuffix.length()).split(
+                        "\\.");
+                if (parts.length != 2 || Integer.parseInt(parts[1]) != mDiskWidth) {
+                    file.delete();
+                    continue;
+                }
+                int taskId = Integer.parseInt(parts[0]);
+                long size = file.length();
+                mDiskIndex.put(taskId, size);
+                mDiskSizeBytes += size;
+            } catch (NumberFormatException e) {
+                file.delete();
+            }
+        }
+        trimDiskToSize(mMaxDiskSizeBytes);
+    }
+
+    private File getFile(int taskId, int width) {
+        return new File(mDiskCacheDir, taskId + "." + width + FileSuffix);
+    }
+
+    @Override
+    public String toString() {
+        int compactionCount;
+        synchronized (mTaskIndices) {
+            compactionCount = mCompactionCount;
+        }
+        synchronized (mDiskIndex) {
+            return "ThumbnailCache memory: " + mMemoryCache.size() + "/" + mMemoryCache.maxSize() +
+                    " bytes, hits: " + mMemoryCache.hitCount() +
+                    " misses: " + mMemoryCache.missCount() +
+                    " evictions: " + mMemoryCache.evictionCount() +
+                    ", previews: " + mPreviewCache.size() + "/" + mPreviewCache.maxSize() +
+                    " bytes, compressed: " + mCompressedCache.size() + "/" +
+                    mCompressedCache.maxSize() + " bytes, hits: " + mCompressedCache.hitCount() +
+                    " compactions: " + compactionCount +
+                    ", disk: " + mDiskSizeBytes + "/" + mMaxDiskSizeBytes +
+                    " bytes, hits: " + mDiskHitCount +
+                    " misses: " + mDiskMissCount +
+                    " evictions: " + mDiskEvictionCount;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.argonmobile.stackview.util;
+
+import android.os.Process;
+import android.os.Trace;
+
+import com.argonmobile.stackview.Constants;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+
+/**
+ * Trace points for the hot paths of the stack.  Every call should be guarded by Enabled, which is
+ * a compile time constant, so that the trace points compile to nothing when tracing is disabled.
+ *
+ * When enabled, sections are written as android.os.Trace sections to be seen in systrace, or, if
+ * the trace file is enabled, recorded along with the counters as Chrome trace events, which are
+ * written out as JSON by writeTraceFile().  Counters are only recorded in the trace file, since
+ * android.os.Trace has no public counters at this SDK.
+ */
+public class RecentsTrace {
+
+    public static final boolean Enabled = Constants.DebugFlags.App.EnableTracing;
+    static final boolean WriteTraceFile = Constants.DebugFlags.App.EnableTraceFile;
+
+    // The sections
+    public static final String SectionSync = "Recents.sync";
+    public static final String SectionTransform = "Recents.transform";
+    public static final String SectionClip = "Recents.clip";
+    public static final String SectionBind = "Recents.bind";
+    public static final String SectionPool = "Recents.pool";
+
+    // The counters
+    public static final String CounterSync = "Recents.sync.childViews";
+    public static final String CounterTransform = "Recents.transform.visibleTasks";
+    public static final String CounterClip = "Recents.clip.clippedViews";
+    public static final String CounterBind = "Recents.bind.boundViews";
+    public static final String CounterPool = "Recents.pool.pooledViews";
+    // The stack scroll, in thousandths
+    public static final String CounterScroll = "Recents.scroll.stackScroll";
+
+    // The number of events recorded before any more are dropped, until the file is written
+    static final int MaxEventCount = 200000;
+
+    // The recorded events as JSON objects, guarded by itself
+    static final ArrayList<String> sEvents = new ArrayList<String>();
+    static int sDroppedEventCount;
+
+    /** Begins a section on the current thread, which must be ended on the same thread */
+    public static void beginSection(String name) {
+        if (WriteTraceFile) {
+            recordEvent("{\"name\":\"" + name + "\",\"ph\":\"B\"," + getEventSuffix());
+        } else {
+            Trace.beginSection(name);
+        }
+    }
+
+    /** Ends the last section begun on the current thread */
+    public static void endSection() {
+        if (WriteTraceFile) {
+            recordEvent("{\"ph\":\"E\"," + getEventSuffix());
+        } else {
+            Trace.endSection();
+        }
+    }
+
+    /** Records the value of a counter */
+    public static void counter(String name, long value) {
+        if (WriteTraceFile) {
+            recordEvent("{\"name\":\"" + name + "\",\"ph\":\"C\",\"args\":{\"value\":" + value +
+                    "}," + getEventSuffix());
+        }
+    }
+
+    /**
+     * Writes the recorded events to a Chrome trace file, which can be opened in chrome://tracing,
+     * and drops them.
+     */
+    public static void writeTraceFile(File file) throws IOException {
+        ArrayList<String> events;
+        synchronized (sEvents) {
+            events = new ArrayList<String>(sEvents);
+            sEvents.clear();
+            sDroppedEventCount = 0;
+        }
+        Writer writer = new BufferedWriter(new FileWriter(file));
+        try {
+            writer.write("{\"traceEvents\":[\n");
+            int eventCount = events.size();
+            for (int i = 0; i < eventCount; i++) {
+                writer.write(events.get(i));
+                writer.write((i < eventCount - 1) ? ",\n" : "\n");
+            }
+            writer.write("]}\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    /** Returns the number of events dropped since the trace file was last written */
+    public static int getDroppedEventCount() {
+        synchronized (sEvents) {
+            return sDroppedEventCount;
+        }
+    }
+
+    /** Returns the time, process and thread of an event, closing it */
+    private static String getEventSuffix() {
+        return "\"ts\":" + (System.nanoTime() / 1000) + ",\"pid\":" + Process.myPid() +
+                ",\"tid\":" + Thread.currentThread().getId() + "}";
+    }
+
+    private static void recordEvent(String event) {
+        synchronized (sEvents) {
+            if (sEvents.size() < MaxEventCount) {
+                sEvents.add(event);
+            } else {
+                sDroppedEventCount++;
+            }
+        }
+    }
+}
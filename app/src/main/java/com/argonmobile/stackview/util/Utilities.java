@@ -176,6 +176,20 @@ public class Utilities {
                     (1f - overlayAlpha) * Color.blue(overlayColor)));
     }
 
+    /**
+     * Returns the largest power of two sample size that decodes an image of the specified width
+     * to no less than a target width.  A target width of zero or less means no sampling.
+     */
+    public static int calculateInSampleSize(int width, int targetWidth) {
+        int sampleSize = 1;
+        if (targetWidth > 0) {
+            while ((width / (sampleSize * 2)) >= targetWidth) {
+                sampleSize *= 2;
+            }
+        }
+        return sampleSize;
+    }
+
     /** Sets some private shadow properties. */
     public static void setShadowProperty(String property, String value)
             throws IllegalAccessException, InvocationTargetException {
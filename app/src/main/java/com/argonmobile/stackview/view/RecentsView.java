@@ -61,11 +61,7 @@ public class RecentsView extends FrameLayout {
     /** Set/get the bsp root node */
     public void setTaskStacks(ArrayList<ProfileStack> stacks) {
         // Remove all TaskStackViews (but leave the search bar)
-        int childCount = getChildCount();
-        for (int i = childCount - 1; i >= 0; i--) {
-            View v = getChildAt(i);
-            removeViewAt(i);
-        }
+        removeAllTaskStacks();
 
         // Create and add all the stacks for this partition of space.
         mStacks = stacks;
@@ -80,15 +76,71 @@ public class RecentsView extends FrameLayout {
 
     }
 
-    /** Removes all the task stack views from this recents view. */
+    /**
+     * Returns the id of the task that the scroll of the view of a stack is restored by, or -1 if
+     * the stack has no view
+     */
+    public int getStackScrollTaskId(ProfileStack stack) {
+        TaskStackView stackView = getTaskStackView(stack);
+        return (stackView != null) ? stackView.getStackScrollTaskId() : -1;
+    }
+
+    /** Returns the scroll of the view of a stack less the scroll of a task */
+    public float getStackScrollTaskOffset(ProfileStack stack, int taskId) {
+        TaskStackView stackView = getTaskStackView(stack);
+        return (stackView != null) ? stackView.getStackScrollTaskOffset(taskId) : 0f;
+    }
+
+    /**
+     * Sets the scroll that the view of a stack starts at on its first layout, relative to the top
+     * of a task
+     */
+    public void setRestoredStackScroll(ProfileStack stack, int scrollTaskId,
+            float scrollTaskOffset) {
+        TaskStackView stackView = getTaskStackView(stack);
+        if (stackView != null) {
+            stackView.setRestoredStackScroll(scrollTaskId, scrollTaskOffset);
+        }
+    }
+
+    /** Returns the view of a stack, if there is one */
+    TaskStackView getTaskStackView(ProfileStack stack) {
+        int childCount = getChildCount();
+        for (int i = 0; i < childCount; i++) {
+            View child = getChildAt(i);
+            if (child instanceof TaskStackView && ((TaskStackView) child).getStack() == stack) {
+                return (TaskStackView) child;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes all the task stack views from this recents view, unloading their tasks first so that
+     * their thumbnails return to the pool
+     */
     public void removeAllTaskStacks() {
         int childCount = getChildCount();
         for (int i = childCount - 1; i >= 0; i--) {
             View child = getChildAt(i);
+            if (child instanceof TaskStackView) {
+                ((TaskStackView) child).unloadAllTasks();
+            }
             removeViewAt(i);
         }
     }
 
+    /** Trims the views of all the task stacks to the level of memory pressure */
+    public void onTrimMemory(int level) {
+        int childCount = getChildCount();
+        for (int i = 0; i < childCount; i++) {
+            View child = getChildAt(i);
+            if (child instanceof TaskStackView) {
+                ((TaskStackView) child).onTrimMemory(level);
+            }
+        }
+    }
+
     /** Requests all task stacks to start their enter-recents animation */
     public void startEnterRecentsAnimation(ViewAnimation.TaskViewEnterContext ctx) {
         int childCount = getChildCount();
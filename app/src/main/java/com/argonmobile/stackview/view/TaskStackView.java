@@ -1,9 +1,12 @@
 package com.argonmobile.stackview.view;
 
 import android.animation.ValueAnimator;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.graphics.Matrix;
 import android.graphics.Rect;
+import android.util.Log;
+import android.util.SparseArray;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.View;
@@ -15,15 +18,23 @@ import com.argonmobile.stackview.R;
 import com.argonmobile.stackview.RecentsConfiguration;
 import com.argonmobile.stackview.model.Profile;
 import com.argonmobile.stackview.model.ProfileStack;
+import com.argonmobile.stackview.model.ProfileStackSnapshot;
+import com.argonmobile.stackview.model.RecentProfileLoader;
+import com.argonmobile.stackview.model.StackDiff;
+import com.argonmobile.stackview.util.RecentsTrace;
 import com.argonmobile.stackview.util.Utilities;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 
 /**
  * Created by argon on 3/23/15.
  */
-public class TaskStackView extends FrameLayout implements ViewPool.ViewPoolConsumer<TaskView, Profile>, TaskStackViewScroller.TaskStackViewScrollerCallbacks {
+public class TaskStackView extends FrameLayout implements ProfileStack.TaskStackCallbacks,
+        ViewPool.ViewPoolConsumer<TaskView, Profile>, TaskStackViewScroller.TaskStackViewScrollerCallbacks {
+
+    static final String TAG = "TaskStackView";
 
     LayoutInflater mInflater;
     RecentsConfiguration mConfig;
@@ -47,14 +58,31 @@ public class TaskStackView extends FrameLayout implements ViewPool.ViewPoolConsu
 
     boolean mStackViewsClipDirty = true;
     boolean mStackViewsDirty = true;
+    // Whether the stack changed since the scroll bounds were last computed, so that a run of
+    // changes within a frame only recomputes them once, on the next sync
+    boolean mStackScrollBoundsDirty;
     boolean mAwaitingFirstLayout = true;
+    // The task and the stack scroll relative to it to start at instead of the initial state, when
+    // restoring a snapshot
+    int mRestoredScrollTaskId = -1;
+    float mRestoredScrollTaskOffset;
+    // Whether the loader is holding back the loads outside of the range a fling will land on
+    boolean mIsFlingPrefetching;
 
     int[] mTmpVisibleRange = new int[2];
+    int[] mTmpPagedVisibleRange = new int[2];
     float[] mTmpCoord = new float[2];
     Matrix mTmpMatrix = new Matrix();
 
     TaskViewTransform mTmpTransform = new TaskViewTransform();
-    HashMap<Profile, TaskView> mTmpTaskViewMap = new HashMap<Profile, TaskView>();
+    TaskViewTransform[] mTmpPagedTransforms = new TaskViewTransform[] {
+            new TaskViewTransform(), new TaskViewTransform() };
+    SparseArray<TaskView> mTmpTaskViewMap = new SparseArray<TaskView>();
+
+    // The number of pooled views whose layers were released, and of views dropped from the pool,
+    // by memory trims
+    int mReleasedLayerCount;
+    int mTrimmedViewCount;
 
     // A convenience update listener to request updating clipping of tasks
     ValueAnimator.AnimatorUpdateListener mRequestUpdateClippingListener =
@@ -83,7 +111,7 @@ public class TaskStackView extends FrameLayout implements ViewPool.ViewPoolConsu
         super(context);
         mConfig = RecentsConfiguration.getInstance();
         mStack = stack;
-        //mStack.setCallbacks(this);
+        mStack.setCallbacks(this);
         mViewPool = new ViewPool<TaskView, Profile>(context, this);
         mInflater = LayoutInflater.from(context);
         mLayoutAlgorithm = new TaskStackViewLayoutAlgorithm(mConfig);
@@ -96,6 +124,61 @@ public class TaskStackView extends FrameLayout implements ViewPool.ViewPoolConsu
         return true;
     }
 
+    /**
+     * Trims the views kept for reuse to the level of memory pressure.  The hardware layers of the
+     * pooled views are released first, as they are not drawn, then the pool is shrunk to the
+     * number of visible views, or emptied when memory is critical.
+     */
+    public void onTrimMemory(int level) {
+        int maxPoolSize;
+        switch (level) {
+            case ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN:
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE:
+            case ComponentCallbacks2.TRIM_MEMORY_BACKGROUND:
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW:
+            case ComponentCallbacks2.TRIM_MEMORY_MODERATE:
+                // Keep enough views to scroll a screen of tasks without inflating new ones
+                maxPoolSize = getChildCount();
+                break;
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL:
+            case ComponentCallbacks2.TRIM_MEMORY_COMPLETE:
+                maxPoolSize = 0;
+                break;
+            default:
+                return;
+        }
+
+        int releasedLayerCount = 0;
+        Iterator<TaskView> iter = mViewPool.poolViewIterator();
+        while (iter.hasNext()) {
+            iter.next().releaseLayers();
+            releasedLayerCount++;
+        }
+        // The pooled views were only detached, so remove them for good, which lets them drop
+        // their attach info, display lists and listeners
+        List<TaskView> trimmedViews = mViewPool.trimToSize(maxPoolSize);
+        int trimmedViewCount = trimmedViews.size();
+        for (int i = 0; i < trimmedViewCount; i++) {
+            removeDetachedView(trimmedViews.get(i), false);
+        }
+        mReleasedLayerCount += releasedLayerCount;
+        mTrimmedViewCount += trimmedViewCount;
+        if (Constants.DebugFlags.App.EnableDebugMode) {
+            Log.d(TAG, "onTrimMemory(" + level + ") released layers: " + releasedLayerCount +
+                    " dropped views: " + trimmedViewCount + " (total layers: " +
+                    mReleasedLayerCount + " views: " + mTrimmedViewCount + ")");
+        }
+    }
+
+    /**
+     * Returns all the task views to the pool and unloads the data of all the tasks, before this
+     * view is removed for good, so that none of their thumbnails stay referenced
+     */
+    public void unloadAllTasks() {
+        mReturnAllViewsToPoolRunnable.run();
+        RecentProfileLoader.getInstance().unloadTasks(mStack);
+    }
+
     /** Requests this task stacks to start it's exit-recents animation. */
     public void startExitToHomeAnimation(ViewAnimation.TaskViewExitContext ctx) {
         // Stop any scrolling
@@ -114,6 +197,18 @@ public class TaskStackView extends FrameLayout implements ViewPool.ViewPoolConsu
         ctx.postAnimationTrigger.addLastDecrementRunnable(mReturnAllViewsToPoolRunnable);
     }
 
+    /** Returns the task view for the specified task, or null if it is not currently bound. */
+    TaskView getChildViewForTask(Profile t) {
+        int childCount = getChildCount();
+        for (int i = 0; i < childCount; i++) {
+            TaskView tv = (TaskView) getChildAt(i);
+            if (tv.getTask() == t) {
+                return tv;
+            }
+        }
+        return null;
+    }
+
     /** Requests that the views clipping be updated. */
     void requestUpdateStackViewsClip() {
         if (!mStackViewsClipDirty) {
@@ -145,7 +240,14 @@ public class TaskStackView extends FrameLayout implements ViewPool.ViewPoolConsu
         // If this is the first layout, then scroll to the front of the stack and synchronize the
         // stack views immediately to load all the views
         if (mAwaitingFirstLayout) {
-            mStackScroller.setStackScrollToInitialState();
+            // The task may be spaced differently in this layout, so keep its top where it was
+            float taskScroll = getStackScrollForTask(mRestoredScrollTaskId);
+            if (taskScroll >= 0f) {
+                mStackScroller.setStackScroll(mStackScroller.getBoundedStackScroll(
+                        taskScroll + mRestoredScrollTaskOffset));
+            } else {
+                mStackScroller.setStackScrollToInitialState();
+            }
             requestSynchronizeStackViewsWithModel();
             synchronizeStackViewsWithModel();
         }
@@ -241,6 +343,70 @@ public class TaskStackView extends FrameLayout implements ViewPool.ViewPoolConsu
 
     }
 
+    /** Returns the stack this view is showing */
+    public ProfileStack getStack() {
+        return mStack;
+    }
+
+    /** Returns the current stack scroll */
+    public float getStackScroll() {
+        return mStackScroller.getStackScroll();
+    }
+
+    /**
+     * Returns the id of the front-most visible task, which the stack scroll is restored by, or -1
+     * if there is none
+     */
+    public int getStackScrollTaskId() {
+        if (mAwaitingFirstLayout) {
+            return mRestoredScrollTaskId;
+        }
+        if (!getVisibleTaskRange(mStackScroller.getStackScroll(), mTmpVisibleRange)) {
+            return -1;
+        }
+        int taskIndex = mTmpVisibleRange[0];
+        if (mStack.isPaged()) {
+            // The visible tasks are in the window once the views are synchronized
+            taskIndex -= mStack.getWindowStart();
+        }
+        ArrayList<Profile> tasks = mStack.getTasks();
+        return (taskIndex >= 0 && taskIndex < tasks.size()) ? tasks.get(taskIndex).key.id : -1;
+    }
+
+    /** Returns the current stack scroll less the scroll of a task */
+    public float getStackScrollTaskOffset(int taskId) {
+        if (mAwaitingFirstLayout) {
+            return (taskId == mRestoredScrollTaskId) ? mRestoredScrollTaskOffset : 0f;
+        }
+        float taskScroll = getStackScrollForTask(taskId);
+        return (taskScroll >= 0f) ? mStackScroller.getStackScroll() - taskScroll : 0f;
+    }
+
+    /**
+     * Sets the stack scroll to start at on the first layout, instead of the initial state.  The
+     * scroll is relative to a task, whose top is put where it was even if the tasks of the stack
+     * it was taken from were spaced differently.  The initial state is used if the task is not in
+     * the stack.
+     */
+    public void setRestoredStackScroll(int scrollTaskId, float scrollTaskOffset) {
+        mRestoredScrollTaskId = scrollTaskId;
+        mRestoredScrollTaskOffset = scrollTaskOffset;
+    }
+
+    /** Returns the scroll to such task top = 1f, or -1 if the task is not in the stack */
+    private float getStackScrollForTask(int taskId) {
+        if (taskId < 0) {
+            return -1f;
+        }
+        int taskIndex = mStack.findTaskIndexWithId(taskId);
+        if (taskIndex < 0) {
+            return -1f;
+        }
+        // Paged stacks look the task up by its index in the data source alone
+        Profile task = mStack.isPaged() ? null : mStack.getTasks().get(taskIndex);
+        return mLayoutAlgorithm.getStackScrollForTask(task, taskIndex);
+    }
+
     /** Requests this task stacks to start it's enter-recents animation */
     public void startEnterRecentsAnimation(ViewAnimation.TaskViewEnterContext ctx) {
         // If we are still waiting to layout, then just defer until then
@@ -273,7 +439,7 @@ public class TaskStackView extends FrameLayout implements ViewPool.ViewPoolConsu
                 ctx.currentTaskRect = mLayoutAlgorithm.mTaskRect;
                 ctx.currentTaskOccludesLaunchTarget = (launchTargetTask != null);
 //                ctx.updateListener = mRequestUpdateClippingListener;
-                mLayoutAlgorithm.getStackTransform(task, mStackScroller.getStackScroll(), ctx.currentTaskTransform, null);
+                getStackTransform(task, mStackScroller.getStackScroll(), ctx.currentTaskTransform, null);
                 tv.startEnterRecentsAnimation(ctx);
             }
 
@@ -311,6 +477,10 @@ public class TaskStackView extends FrameLayout implements ViewPool.ViewPoolConsu
     void clipTaskViews() {
         // Update the clip on each task child
         if (Constants.DebugFlags.App.EnableTaskStackClipping) {
+            if (RecentsTrace.Enabled) {
+                RecentsTrace.beginSection(RecentsTrace.SectionClip);
+            }
+            int clippedViewCount = 0;
             int childCount = getChildCount();
             for (int i = 0; i < childCount - 1; i++) {
                 TaskView tv = (TaskView) getChildAt(i);
@@ -342,12 +512,19 @@ public class TaskStackView extends FrameLayout implements ViewPool.ViewPoolConsu
                     }
                 }
                 //tv.getViewBounds().setClipBottom(clipBottom);
+                if (RecentsTrace.Enabled && clipBottom > 0) {
+                    clippedViewCount++;
+                }
             }
             if (getChildCount() > 0) {
                 // The front most task should never be clipped
                 TaskView tv = (TaskView) getChildAt(getChildCount() - 1);
                 //tv.getViewBounds().setClipBottom(0);
             }
+            if (RecentsTrace.Enabled) {
+                RecentsTrace.counter(RecentsTrace.CounterClip, clippedViewCount);
+                RecentsTrace.endSection();
+            }
         }
         mStackViewsClipDirty = false;
     }
@@ -359,6 +536,18 @@ public class TaskStackView extends FrameLayout implements ViewPool.ViewPoolConsu
         // Compute the rects in the stack algorithm
         mLayoutAlgorithm.computeRects(windowWidth, windowHeight, taskStackBounds);
 
+        // Decode the thumbnails at the size of the task views, loading the bound ones again if
+        // that size changed
+        Rect taskViewSize = mLayoutAlgorithm.getUntransformedTaskViewSize();
+        RecentProfileLoader loader = RecentProfileLoader.getInstance();
+        if (loader.setThumbnailSize(taskViewSize.width(), taskViewSize.height())) {
+            int childCount = getChildCount();
+            for (int i = 0; i < childCount; i++) {
+                TaskView tv = (TaskView) getChildAt(i);
+                tv.reloadTaskData(mStack.getWindowStart() + mStack.indexOfTask(tv.getTask()));
+            }
+        }
+
         // Update the scroll bounds
         updateMinMaxScroll(false, launchedWithAltTab, launchedFromHome);
     }
@@ -366,8 +555,16 @@ public class TaskStackView extends FrameLayout implements ViewPool.ViewPoolConsu
     /** Updates the min and max virtual scroll bounds */
     void updateMinMaxScroll(boolean boundScrollToNewMinMax, boolean launchedWithAltTab,
                             boolean launchedFromHome) {
+        mStackScrollBoundsDirty = false;
+
         // Compute the min and max scroll values
-        mLayoutAlgorithm.computeMinMaxScroll(mStack.getTasks(), launchedWithAltTab, launchedFromHome);
+        if (mStack.isPaged()) {
+            mLayoutAlgorithm.computeMinMaxScroll(mStack.getTotalTaskCount(), launchedWithAltTab,
+                    launchedFromHome);
+        } else {
+            mLayoutAlgorithm.computeMinMaxScroll(mStack.getTasks(), launchedWithAltTab,
+                    launchedFromHome);
+        }
 
         // Debug logging
         if (boundScrollToNewMinMax) {
@@ -395,15 +592,41 @@ public class TaskStackView extends FrameLayout implements ViewPool.ViewPoolConsu
     /** Synchronizes the views with the model */
     boolean synchronizeStackViewsWithModel() {
         if (mStackViewsDirty) {
+            if (mStackScrollBoundsDirty) {
+                updateMinMaxScroll(true, mConfig.launchedWithAltTab, mConfig.launchedFromHome);
+            }
+            if (RecentsTrace.Enabled) {
+                RecentsTrace.beginSection(RecentsTrace.SectionSync);
+                RecentsTrace.beginSection(RecentsTrace.SectionTransform);
+            }
 
-            // Get all the task transforms
-            ArrayList<Profile> tasks = mStack.getTasks();
+            // Get all the task transforms, moving the window of a paged stack first
             float stackScroll = mStackScroller.getStackScroll();
             int[] visibleRange = mTmpVisibleRange;
-            boolean isValidVisibleRange = updateStackTransforms(mCurrentTaskTransforms, tasks,
-                    stackScroll, visibleRange, false);
+            boolean isValidVisibleRange;
+            if (mStack.isPaged()) {
+                isValidVisibleRange = updatePagedStackTransforms(mCurrentTaskTransforms,
+                        stackScroll, visibleRange);
+            } else {
+                isValidVisibleRange = updateStackTransforms(mCurrentTaskTransforms,
+                        mStack.getTasks(), stackScroll, visibleRange, false);
+            }
+            if (RecentsTrace.Enabled) {
+                RecentsTrace.endSection();
+                RecentsTrace.counter(RecentsTrace.CounterTransform, isValidVisibleRange ?
+                        visibleRange[0] - visibleRange[1] + 1 : 0);
+            }
+            ArrayList<Profile> tasks = mStack.getTasks();
+            if (isValidVisibleRange) {
+                int windowStart = mStack.getWindowStart();
+                RecentProfileLoader.getInstance().setVisibleRange(windowStart + visibleRange[0],
+                        windowStart + visibleRange[1]);
+            }
 
             // Return all the invisible children to the pool
+            if (RecentsTrace.Enabled) {
+                RecentsTrace.beginSection(RecentsTrace.SectionPool);
+            }
             mTmpTaskViewMap.clear();
             int childCount = getChildCount();
             for (int i = childCount - 1; i >= 0; i--) {
@@ -411,21 +634,33 @@ public class TaskStackView extends FrameLayout implements ViewPool.ViewPoolConsu
                 Profile task = tv.getTask();
                 int taskIndex = mStack.indexOfTask(task);
                 if (visibleRange[1] <= taskIndex && taskIndex <= visibleRange[0]) {
-                    mTmpTaskViewMap.put(task, tv);
+                    mTmpTaskViewMap.put(task.key.id, tv);
                 } else {
                     mViewPool.returnViewToPool(tv);
                 }
             }
 
+            if (RecentsTrace.Enabled) {
+                RecentsTrace.endSection();
+            }
+
             // Pick up all the newly visible children and update all the existing children
+            int boundViewCount = 0;
             for (int i = visibleRange[0]; isValidVisibleRange && i >= visibleRange[1]; i--) {
                 Profile task = tasks.get(i);
                 TaskViewTransform transform = mCurrentTaskTransforms.get(i);
-                TaskView tv = mTmpTaskViewMap.get(task);
+                TaskView tv = mTmpTaskViewMap.get(task.key.id);
                 int taskIndex = mStack.indexOfTask(task);
 
                 if (tv == null) {
+                    if (RecentsTrace.Enabled) {
+                        RecentsTrace.beginSection(RecentsTrace.SectionPool);
+                    }
                     tv = mViewPool.pickUpViewFromPool(task, task);
+                    if (RecentsTrace.Enabled) {
+                        RecentsTrace.endSection();
+                        boundViewCount++;
+                    }
 
                     if (mStackViewsAnimationDuration > 0) {
                         // For items in the list, put them in start animating them from the
@@ -449,6 +684,12 @@ public class TaskStackView extends FrameLayout implements ViewPool.ViewPoolConsu
             mStackViewsAnimationDuration = 0;
             mStackViewsDirty = false;
             mStackViewsClipDirty = true;
+            if (RecentsTrace.Enabled) {
+                RecentsTrace.counter(RecentsTrace.CounterSync, getChildCount());
+                RecentsTrace.counter(RecentsTrace.CounterBind, boundViewCount);
+                RecentsTrace.counter(RecentsTrace.CounterPool, mViewPool.size());
+                RecentsTrace.endSection();
+            }
             return true;
         }
         return false;
@@ -518,6 +759,165 @@ public class TaskStackView extends FrameLayout implements ViewPool.ViewPoolConsu
         return frontMostVisibleIndex != -1 && backMostVisibleIndex != -1;
     }
 
+    /**
+     * Gets the stack transforms of the window of a paged stack, and returns the visible range of
+     * tasks in the window.  The visible range is found from the stack scroll alone, and the window
+     * is moved to cover it before any transforms are computed, so the cost does not depend on the
+     * number of tasks in the stack.
+     */
+    private boolean updatePagedStackTransforms(ArrayList<TaskViewTransform> taskTransforms,
+                                               float stackScroll,
+                                               int[] visibleRangeOut) {
+        int[] range = mTmpPagedVisibleRange;
+        getVisibleTaskRange(stackScroll, range);
+        int frontMostVisibleIndex = range[0];
+        int backMostVisibleIndex = range[1];
+        if (frontMostVisibleIndex != -1) {
+            ArrayList<Profile> prevWindow = mStack.getTasks();
+            int prevWindowStart = mStack.getWindowStart();
+            if (mStack.ensureWindow(backMostVisibleIndex, frontMostVisibleIndex)) {
+                unloadTasksOutsideWindow(prevWindow, prevWindowStart);
+            }
+        }
+
+        // Update the transforms of the tasks in the window
+        int windowStart = mStack.getWindowStart();
+        int taskCount = mStack.getTaskCount();
+        for (int i = taskTransforms.size(); i < taskCount; i++) {
+            taskTransforms.add(new TaskViewTransform());
+        }
+        TaskViewTransform prevTransform = null;
+        for (int i = taskCount - 1; i >= 0; i--) {
+            int taskIndex = windowStart + i;
+            if (taskIndex < backMostVisibleIndex || taskIndex > frontMostVisibleIndex) {
+                taskTransforms.get(i).reset();
+                continue;
+            }
+            prevTransform = mLayoutAlgorithm.getStackTransformForIndex(taskIndex, stackScroll,
+                    taskTransforms.get(i), prevTransform);
+        }
+        if (visibleRangeOut != null) {
+            visibleRangeOut[0] = frontMostVisibleIndex - windowStart;
+            visibleRangeOut[1] = backMostVisibleIndex - windowStart;
+        }
+        return frontMostVisibleIndex != -1 && backMostVisibleIndex != -1;
+    }
+
+    /**
+     * Returns the range of task indices in the stack, front-most first, that are visible at a
+     * stack scroll.  The indices of a paged stack are in its data source.  Neither the transforms
+     * of the views nor the window of a paged stack are changed.
+     */
+    private boolean getVisibleTaskRange(float stackScroll, int[] visibleRangeOut) {
+        // Walk back from the front-most task that can be visible until the tasks are hidden
+        boolean isPaged = mStack.isPaged();
+        ArrayList<Profile> tasks = isPaged ? null : mStack.getTasks();
+        int startIndex = isPaged ?
+                mLayoutAlgorithm.getUniformFrontMostVisibleTaskIndex(stackScroll) :
+                tasks.size() - 1;
+        int frontMostVisibleIndex = -1;
+        int backMostVisibleIndex = -1;
+        TaskViewTransform prevTransform = null;
+        for (int i = startIndex; i >= 0; i--) {
+            TaskViewTransform transformOut = mTmpPagedTransforms[i % 2];
+            TaskViewTransform transform = isPaged ?
+                    mLayoutAlgorithm.getStackTransformForIndex(i, stackScroll, transformOut,
+                            prevTransform) :
+                    mLayoutAlgorithm.getStackTransform(tasks.get(i), stackScroll, transformOut,
+                            prevTransform);
+            if (transform.visible) {
+                if (frontMostVisibleIndex < 0) {
+                    frontMostVisibleIndex = i;
+                }
+                backMostVisibleIndex = i;
+            } else if (backMostVisibleIndex != -1) {
+                break;
+            }
+            prevTransform = transform;
+        }
+        visibleRangeOut[0] = frontMostVisibleIndex;
+        visibleRangeOut[1] = backMostVisibleIndex;
+        return frontMostVisibleIndex != -1 && backMostVisibleIndex != -1;
+    }
+
+    /**
+     * Unloads the tasks of the previous window of a paged stack that are no longer in the window.
+     * Their views are returned to the pool when the views are next synchronized, but the tasks
+     * that were preloaded without a view would otherwise keep their thumbnails.
+     */
+    private void unloadTasksOutsideWindow(ArrayList<Profile> prevWindow, int prevWindowStart) {
+        int windowStart = mStack.getWindowStart();
+        int windowEnd = windowStart + mStack.getTaskCount();
+        int prevWindowSize = prevWindow.size();
+        RecentProfileLoader loader = RecentProfileLoader.getInstance();
+        for (int i = 0; i < prevWindowSize; i++) {
+            int taskIndex = prevWindowStart + i;
+            Profile task = prevWindow.get(i);
+            if ((taskIndex < windowStart || taskIndex >= windowEnd) &&
+                    getChildViewForTask(task) == null) {
+                loader.unloadTaskData(task);
+            }
+        }
+    }
+
+    /** Gets the stack transform of a task, which may be in the window of a paged stack */
+    TaskViewTransform getStackTransform(Profile task, float stackScroll,
+                                        TaskViewTransform transformOut,
+                                        TaskViewTransform prevTransform) {
+        if (mStack.isPaged()) {
+            int taskIndex = mStack.indexOfTask(task);
+            return mLayoutAlgorithm.getStackTransformForIndex(
+                    (taskIndex < 0) ? -1 : mStack.getWindowStart() + taskIndex, stackScroll,
+                    transformOut, prevTransform);
+        }
+        return mLayoutAlgorithm.getStackTransform(task, stackScroll, transformOut, prevTransform);
+    }
+
+    /**** TaskStackCallbacks Implementation ****/
+
+    @Override
+    public void onStackTaskAdded(ProfileStack stack, Profile t) {
+        // The views are updated from the diff in onStackChanged()
+    }
+
+    @Override
+    public void onStackTaskRemoved(ProfileStack stack, Profile removedTask, Profile newFrontMostTask) {
+        // The views are updated from the diff in onStackChanged()
+    }
+
+    @Override
+    public void onStackFiltered(ProfileStack newStack, ProfileStackSnapshot curTasks, Profile t) {
+        // The views are updated from the diff in onStackChanged()
+    }
+
+    @Override
+    public void onStackUnfiltered(ProfileStack newStack, ProfileStackSnapshot curTasks) {
+        // The views are updated from the diff in onStackChanged()
+    }
+
+    @Override
+    public void onStackChanged(ProfileStack stack, StackDiff diff) {
+        // Return the views of the removed tasks to the pool right away.  The views of the tasks
+        // that are still in the stack stay bound, and only the ones whose transform changed are
+        // animated into their new place when the views are next synchronized.
+        ArrayList<ProfileStack.TaskListChange> changes = diff.getChanges();
+        int changeCount = changes.size();
+        for (int i = 0; i < changeCount; i++) {
+            ProfileStack.TaskListChange change = changes.get(i);
+            if (change.type == ProfileStack.TaskListChange.TYPE_REMOVE) {
+                TaskView tv = getChildViewForTask(change.task);
+                if (tv != null) {
+                    mViewPool.returnViewToPool(tv);
+                }
+            }
+        }
+
+        // Update the min/max scroll and animate the remaining views into place on the next frame,
+        // along with any other changes made before then
+        mStackScrollBoundsDirty = true;
+        requestSynchronizeStackViewsWithModel(mConfig.filteringCurrentViewsAnimDuration);
+    }
+
     /**** ViewPoolConsumer Implementation ****/
 
     @Override
@@ -529,6 +929,12 @@ public class TaskStackView extends FrameLayout implements ViewPool.ViewPoolConsu
     public void prepareViewToEnterPool(TaskView tv) {
         Profile task = tv.getTask();
 
+        // Drop the load of this task's data if it is still in flight, and report that its data is
+        // no longer being used
+        tv.cancelTaskLoad();
+        RecentProfileLoader.getInstance().unloadTaskData(task);
+        tv.onTaskUnbound();
+
         // Detach the view from the hierarchy
         detachViewFromParent(tv);
 
@@ -539,7 +945,20 @@ public class TaskStackView extends FrameLayout implements ViewPool.ViewPoolConsu
     @Override
     public void prepareViewToLeavePool(TaskView tv, Profile task, boolean isNewView) {
         // Rebind the task and request that this task's data be filled into the TaskView
-        tv.onTaskBound(task);
+        long bindStartTime = Constants.DebugFlags.App.EnableDebugMode ? System.nanoTime() : 0;
+        if (RecentsTrace.Enabled) {
+            RecentsTrace.beginSection(RecentsTrace.SectionBind);
+        }
+        tv.onTaskBound(task, mStack.getWindowStart() + mStack.indexOfTask(task));
+        if (RecentsTrace.Enabled) {
+            RecentsTrace.endSection();
+        }
+        if (Constants.DebugFlags.App.EnableDebugMode) {
+            long bindMicros = (System.nanoTime() - bindStartTime) / 1000;
+            if (bindMicros > Constants.Values.TaskStackView.TaskViewBindBudgetMicros) {
+                Log.w(TAG, "Binding " + task + " took " + bindMicros + "us");
+            }
+        }
 
         // Mark the launch task as fullscreen
         if (Constants.DebugFlags.App.EnableScreenshotAppTransition && mAwaitingFirstLayout) {
@@ -588,4 +1007,26 @@ public class TaskStackView extends FrameLayout implements ViewPool.ViewPoolConsu
         requestSynchronizeStackViewsWithModel();
         postInvalidateOnAnimation();
     }
+
+    @Override
+    public void onFlingStarted(float finalStackScroll) {
+        // Find the tasks the fling will land on, and load their thumbnails ahead of the tasks
+        // it passes over, which are only bound for a few frames
+        int[] range = mTmpPagedVisibleRange;
+        if (!getVisibleTaskRange(finalStackScroll, range)) {
+            return;
+        }
+        RecentProfileLoader loader = RecentProfileLoader.getInstance();
+        loader.setFlingTargetRange(range[0], range[1]);
+        loader.prefetchTaskRange(mStack, range[0], range[1]);
+        mIsFlingPrefetching = true;
+    }
+
+    @Override
+    public void onFlingEnded() {
+        if (mIsFlingPrefetching) {
+            mIsFlingPrefetching = false;
+            RecentProfileLoader.getInstance().clearFlingTargetRange();
+        }
+    }
 }
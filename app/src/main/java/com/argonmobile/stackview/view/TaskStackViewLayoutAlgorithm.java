@@ -17,14 +17,13 @@
 package com.argonmobile.stackview.view;
 
 import android.graphics.Rect;
-import android.util.Log;
 
 import com.argonmobile.stackview.RecentsConfiguration;
 import com.argonmobile.stackview.model.Profile;
+import com.argonmobile.stackview.model.TaskIdIndex;
 import com.argonmobile.stackview.util.Utilities;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 
 /* The layout logic for a TaskStackView.
  *
@@ -51,7 +50,15 @@ public class TaskStackViewLayoutAlgorithm {
     float mInitialScrollP;
     int mWithinAffiliationOffset;
     int mBetweenAffiliationOffset;
-    HashMap<Profile.TaskKey, Float> mTaskProgressMap = new HashMap<Profile.TaskKey, Float>();
+    // The curve progress of each task, looked up by task id through the progress indices
+    TaskIdIndex mTaskProgressIndices = new TaskIdIndex();
+    float[] mTaskProgress = new float[0];
+    // Paged stacks are spaced evenly, so the progress of their tasks is computed from their index
+    boolean mUniformTaskProgress;
+    int mUniformTaskCount;
+    float mUniformTaskPeek;
+
+    static final float BackMostCardTopProgress = 0.5f;
 
     // Log function
     static final float XScale = 1.75f;  // The large the XScale, the longer the flat area of the curve
@@ -95,11 +102,24 @@ public class TaskStackViewLayoutAlgorithm {
      * the RecentsConfiguration is set, so we need to pass in the alt-tab state. */
     void computeMinMaxScroll(ArrayList<Profile> tasks, boolean launchedWithAltTab,
                              boolean launchedFromHome) {
+        computeMinMaxScroll(tasks, tasks.size(), launchedWithAltTab, launchedFromHome);
+    }
+
+    /** Computes the minimum and maximum scroll progress values of a paged stack, where only the
+     * number of tasks is known and the tasks are spaced evenly. */
+    void computeMinMaxScroll(int taskCount, boolean launchedWithAltTab, boolean launchedFromHome) {
+        computeMinMaxScroll(null, taskCount, launchedWithAltTab, launchedFromHome);
+    }
+
+    private void computeMinMaxScroll(ArrayList<Profile> tasks, int taskCount,
+                                     boolean launchedWithAltTab, boolean launchedFromHome) {
         // Clear the progress map
-        mTaskProgressMap.clear();
+        mTaskProgressIndices.clear();
+        mUniformTaskProgress = (tasks == null);
+        mUniformTaskCount = (tasks == null) ? taskCount : 0;
 
         // Return early if we have no tasks
-        if (tasks.isEmpty()) {
+        if (taskCount == 0) {
             mMinScrollP = mMaxScrollP = 0;
             return;
         }
@@ -122,28 +142,35 @@ public class TaskStackViewLayoutAlgorithm {
                 screenYToCurveProgress(mStackVisibleRect.bottom - (mStackVisibleRect.bottom - mStackRect.bottom));
 
         // Update the task offsets
-        float pAtBackMostCardTop = 0.5f;
+        float pAtBackMostCardTop = BackMostCardTopProgress;
         float pAtFrontMostCardTop = pAtBackMostCardTop;
         float pAtSecondFrontMostCardTop = pAtBackMostCardTop;
-        int taskCount = tasks.size();
-        for (int i = 0; i < taskCount; i++) {
-            Profile task = tasks.get(i);
-            mTaskProgressMap.put(task.key, pAtFrontMostCardTop);
-
-            if (i < (taskCount - 1)) {
-                // Increment the peek height
-//                float pPeek = task.group.isFrontMostTask(task) ? pBetweenAffiliateOffset :
-//                        pWithinAffiliateOffset;
-                float pPeek = true ? pBetweenAffiliateOffset :
-                        pWithinAffiliateOffset;
-                //float pPeek = pWithinAffiliateOffset;
-                pAtSecondFrontMostCardTop = pAtFrontMostCardTop;
-                pAtFrontMostCardTop += pPeek;
+        if (mUniformTaskProgress) {
+            // The groups of a paged stack are not known up front, so every task gets a full peek
+            mUniformTaskPeek = pBetweenAffiliateOffset;
+            pAtFrontMostCardTop = getUniformTaskProgress(taskCount - 1);
+            pAtSecondFrontMostCardTop = getUniformTaskProgress(Math.max(0, taskCount - 2));
+        } else {
+            if (mTaskProgress.length < taskCount) {
+                mTaskProgress = new float[taskCount];
+            }
+            for (int i = 0; i < taskCount; i++) {
+                Profile task = tasks.get(i);
+                mTaskProgressIndices.put(task.key.id, i);
+                mTaskProgress[i] = pAtFrontMostCardTop;
+
+                if (i < (taskCount - 1)) {
+                    // Increment the peek height
+                    float pPeek = (task.group == null || task.group.isFrontMostTask(task)) ?
+                            pBetweenAffiliateOffset : pWithinAffiliateOffset;
+                    pAtSecondFrontMostCardTop = pAtFrontMostCardTop;
+                    pAtFrontMostCardTop += pPeek;
+                }
             }
         }
 
         mMaxScrollP = pAtFrontMostCardTop - ((1f - pTaskHeightOffset - pNavBarOffset));
-        mMinScrollP = tasks.size() == 1 ? Math.max(mMaxScrollP, 0f) : 0f;
+        mMinScrollP = taskCount == 1 ? Math.max(mMaxScrollP, 0f) : 0f;
         if (launchedWithAltTab) {
             if (launchedFromHome) {
                 // Center the top most task, since that will be focused first
@@ -162,11 +189,41 @@ public class TaskStackViewLayoutAlgorithm {
     public TaskViewTransform getStackTransform(Profile task, float stackScroll, TaskViewTransform transformOut,
                                                TaskViewTransform prevTransform) {
         // Return early if we have an invalid index
-        if (task == null || !mTaskProgressMap.containsKey(task.key)) {
+        int progressIndex = (task == null) ? -1 : mTaskProgressIndices.get(task.key.id, -1);
+        if (progressIndex < 0) {
             transformOut.reset();
             return transformOut;
         }
-        return getStackTransform(mTaskProgressMap.get(task.key), stackScroll, transformOut, prevTransform);
+        return getStackTransform(mTaskProgress[progressIndex], stackScroll, transformOut, prevTransform);
+    }
+
+    /** Update/get the transform of the task at an index of a paged stack */
+    public TaskViewTransform getStackTransformForIndex(int taskIndex, float stackScroll,
+            TaskViewTransform transformOut, TaskViewTransform prevTransform) {
+        // Return early if we have an invalid index
+        if (!mUniformTaskProgress || taskIndex < 0 || taskIndex >= mUniformTaskCount) {
+            transformOut.reset();
+            return transformOut;
+        }
+        return getStackTransform(getUniformTaskProgress(taskIndex), stackScroll, transformOut,
+                prevTransform);
+    }
+
+    /** Returns the progress of the top of the task at an index of a paged stack */
+    float getUniformTaskProgress(int taskIndex) {
+        return BackMostCardTopProgress + taskIndex * mUniformTaskPeek;
+    }
+
+    /**
+     * Returns the index of the front-most task of a paged stack whose top is not below the stack
+     * at a given scroll, or -1 if there is none.
+     */
+    int getUniformFrontMostVisibleTaskIndex(float stackScroll) {
+        if (!mUniformTaskProgress || mUniformTaskCount == 0) {
+            return -1;
+        }
+        float index = (stackScroll + 1f - BackMostCardTopProgress) / mUniformTaskPeek;
+        return (int) Math.max(-1, Math.min(Math.floor(index), mUniformTaskCount - 1));
     }
 
     /** Update/get the transform */
@@ -196,7 +253,6 @@ public class TaskStackViewLayoutAlgorithm {
         transformOut.translationY = curveProgressToScreenY(pBounded) - mStackVisibleRect.top -
                 scaleYOffset;
         transformOut.translationZ = Math.max(minZ, minZ + (pBounded * (maxZ - minZ)));
-        Log.e("SD_TRACE", "taskProgress: " + taskProgress);
         transformOut.rect.set(mTaskRect);
         transformOut.rect.offset(0, transformOut.translationY);
         Utilities.scaleRectAboutCenter(transformOut.rect, transformOut.scale);
@@ -215,10 +271,21 @@ public class TaskStackViewLayoutAlgorithm {
     }
 
     /**
-     * Returns the scroll to such task top = 1f;
+     * Returns the scroll to such task top = 1f, or -1 if the task is not in the stack.  Paged
+     * stacks do not index their tasks, so they look the task up by its index in the stack instead.
      */
-    float getStackScrollForTask(Profile t) {
-        return mTaskProgressMap.get(t.key);
+    float getStackScrollForTask(Profile t, int taskIndex) {
+        if (mUniformTaskProgress) {
+            if (taskIndex < 0 || taskIndex >= mUniformTaskCount) {
+                return -1f;
+            }
+            return getUniformTaskProgress(taskIndex);
+        }
+        int progressIndex = mTaskProgressIndices.get(t.key.id, -1);
+        if (progressIndex < 0) {
+            return -1f;
+        }
+        return mTaskProgress[progressIndex];
     }
 
     /** Initializes the curve. */
@@ -5,15 +5,17 @@ import android.animation.AnimatorListenerAdapter;
 import android.animation.ObjectAnimator;
 import android.animation.ValueAnimator;
 import android.content.Context;
-import android.util.Log;
 import android.widget.OverScroller;
 
 import com.argonmobile.stackview.RecentsConfiguration;
+import com.argonmobile.stackview.util.RecentsTrace;
 
 /* The scrolling logic for a TaskStackView */
 public class TaskStackViewScroller {
     public interface TaskStackViewScrollerCallbacks {
         public void onScrollChanged(float p);
+        public void onFlingStarted(float finalStackScroll);
+        public void onFlingEnded();
     }
 
     RecentsConfiguration mConfig;
@@ -23,6 +25,7 @@ public class TaskStackViewScroller {
     float mStackScrollP;
 
     OverScroller mScroller;
+    boolean mIsFlinging;
     ObjectAnimator mScrollAnimator;
 
     public TaskStackViewScroller(Context context, RecentsConfiguration config, TaskStackViewLayoutAlgorithm layoutAlgorithm) {
@@ -157,17 +160,35 @@ public class TaskStackViewScroller {
         return (float) s / mLayoutAlgorithm.mStackVisibleRect.height();
     }
 
+    /** Flings the stack scroll with a velocity, in pixels per second. */
+    void fling(int velocity, int overscrollRange) {
+        mScroller.fling(0, progressToScrollRange(getStackScroll()),
+                0, velocity,
+                0, 0,
+                progressToScrollRange(mLayoutAlgorithm.mMinScrollP),
+                progressToScrollRange(mLayoutAlgorithm.mMaxScrollP),
+                0, overscrollRange);
+        mIsFlinging = true;
+        if (mCb != null) {
+            // The fling may end out of bounds, but the stack then settles back into bounds
+            mCb.onFlingStarted(getBoundedStackScroll(scrollRangeToProgress(mScroller.getFinalY())));
+        }
+    }
+
     /** Called from the view draw, computes the next scroll. */
     boolean computeScroll() {
-        Log.e("SD_TRACE", "compute scroll..........");
         if (mScroller.computeScrollOffset()) {
             float scroll = scrollRangeToProgress(mScroller.getCurrY());
             setStackScrollRaw(scroll);
+            if (RecentsTrace.Enabled) {
+                RecentsTrace.counter(RecentsTrace.CounterScroll, (long) (scroll * 1000));
+            }
             if (mCb != null) {
                 mCb.onScrollChanged(scroll);
             }
             return true;
         }
+        endFling();
         return false;
     }
 
@@ -181,5 +202,16 @@ public class TaskStackViewScroller {
         if (!mScroller.isFinished()) {
             mScroller.abortAnimation();
         }
+        endFling();
+    }
+
+    /** Notifies the callbacks if a fling has ended or been stopped. */
+    private void endFling() {
+        if (mIsFlinging) {
+            mIsFlinging = false;
+            if (mCb != null) {
+                mCb.onFlingEnded();
+            }
+        }
     }
 }
\ No newline at end of file
@@ -18,13 +18,16 @@ import com.argonmobile.stackview.Constants;
 import com.argonmobile.stackview.R;
 import com.argonmobile.stackview.RecentsConfiguration;
 import com.argonmobile.stackview.model.Profile;
+import com.argonmobile.stackview.model.RecentProfileLoader;
 
 /**
  * Created by argon on 3/23/15.
  */
-public class TaskView extends FrameLayout {
+public class TaskView extends FrameLayout implements Profile.TaskCallbacks {
 
     Profile mTask;
+    // The load of the data of the task, until it is delivered or cancelled
+    RecentProfileLoader.TaskLoadHandle mTaskLoadHandle;
 
     RecentsConfiguration mConfig;
 
@@ -396,6 +399,17 @@ public class TaskView extends FrameLayout {
 
     }
 
+    /**
+     * Releases the hardware layers of this view while it is not drawn, they are created again
+     * the next time the dim is set
+     */
+    void releaseLayers() {
+        mContent.setLayerType(LAYER_TYPE_NONE, null);
+        if (mHeaderView != null) {
+            mHeaderView.setLayerType(LAYER_TYPE_NONE, null);
+        }
+    }
+
     /** Resets this view's properties */
     void resetViewProperties() {
         setDim(0);
@@ -462,9 +476,58 @@ public class TaskView extends FrameLayout {
         ctx.postAnimationTrigger.increment();
     }
 
-    /** Binds this task view to the task */
-    public void onTaskBound(Profile t) {
+    /** Binds this task view to the task, and requests the data of the task to be loaded */
+    public void onTaskBound(Profile t, int taskIndex) {
         mTask = t;
-        //mTask.setCallbacks(this);
+        mTask.setCallbacks(this);
+        mTaskLoadHandle = RecentProfileLoader.getInstance().loadTaskData(t, taskIndex);
+    }
+
+    /** Unloads the data of the task and loads it again, when the size it is loaded at changes */
+    public void reloadTaskData(int taskIndex) {
+        cancelTaskLoad();
+        RecentProfileLoader loader = RecentProfileLoader.getInstance();
+        loader.unloadTaskData(mTask);
+        mTaskLoadHandle = loader.loadTaskData(mTask, taskIndex);
+    }
+
+    /** Cancels the load of the data of the task, if it has not been delivered yet */
+    public void cancelTaskLoad() {
+        if (mTaskLoadHandle != null) {
+            mTaskLoadHandle.cancel();
+            mTaskLoadHandle = null;
+        }
+    }
+
+    /** Unbinds this task view from the task */
+    public void onTaskUnbound() {
+        cancelTaskLoad();
+        if (mTask != null) {
+            mTask.setCallbacks(null);
+        }
+    }
+
+    /**** TaskCallbacks Implementation ****/
+
+    @Override
+    public void onTaskDataLoaded() {
+        if (mTask.thumbnail != null) {
+            // The load is done once the thumbnail is delivered, rather than its preview
+            mTaskLoadHandle = null;
+        }
+        if (mThumbnailView != null && mHeaderView != null) {
+            // Bind each of the views to the new task data
+            mThumbnailView.rebindToTask(mTask);
+            mHeaderView.rebindToTask(mTask);
+        }
+    }
+
+    @Override
+    public void onTaskDataUnloaded() {
+        if (mThumbnailView != null && mHeaderView != null) {
+            // Unbind each of the views from the task data and remove the task callback
+            mThumbnailView.unbindFromTask();
+            mHeaderView.unbindFromTask();
+        }
     }
 }
@@ -53,6 +53,11 @@ public class TaskViewHeader extends FrameLayout {
     ValueAnimator backgroundColorAnimator;
     PorterDuffColorFilter mDimFilter = new PorterDuffColorFilter(0, PorterDuff.Mode.SRC_ATOP);
 
+    // The label last set on the description, so that it is only set again when it changes
+    String mBoundLabel;
+    // The cached icon that the icon view was last bound to a new drawable of
+    Drawable mBoundIcon;
+
     boolean mIsFullscreen;
     boolean mCurrentPrimaryColorIsDark;
     int mCurrentPrimaryColor;
@@ -97,6 +102,7 @@ public class TaskViewHeader extends FrameLayout {
         // Initialize the icon and description views
         mApplicationIcon = (ImageView) findViewById(R.id.application_icon);
         mActivityDescription = (TextView) findViewById(R.id.activity_description);
+        mActivityDescription.setTextColor(mConfig.taskBarViewDarkTextColor);
 
         // Hide the backgrounds if they are ripple drawables
 //        if (!Constants.DebugFlags.App.EnableTaskFiltering) {
@@ -136,17 +142,52 @@ public class TaskViewHeader extends FrameLayout {
         return Utilities.getColorWithOverlay(primaryColor, overlayColor, 0.8f);
     }
 
-    /** Binds the bar view to the task */
+    /**
+     * Binds the bar view to the task.  The icon and label were loaded into the task ahead of time,
+     * so this only compares references, and creates a drawable from the icon when it changes.
+     */
     public void rebindToTask(Profile t) {
-
-        if (!mActivityDescription.getText().toString().equals(t.activityLabel)) {
+        if (mBoundIcon != t.applicationIcon) {
+            mApplicationIcon.setImageDrawable(newIconDrawable(t.applicationIcon));
+            mBoundIcon = t.applicationIcon;
+        }
+        if (mBoundLabel != t.activityLabel) {
             mActivityDescription.setText(t.activityLabel);
+            mBoundLabel = t.activityLabel;
+        }
+
+        // The colors were computed when the thumbnail was loaded, the default being light
+        int primaryColor = (t.colorPrimary != 0) ?
+                t.colorPrimary : mConfig.taskBarViewDefaultBackgroundColor;
+        boolean primaryColorIsDark = (t.colorPrimary != 0) && t.useLightOnPrimaryColor;
+        if (primaryColor != mCurrentPrimaryColor) {
+            setBackgroundColor(primaryColor);
+            mCurrentPrimaryColor = primaryColor;
+        }
+        if (primaryColorIsDark != mCurrentPrimaryColorIsDark) {
+            mActivityDescription.setTextColor(primaryColorIsDark ?
+                    mConfig.taskBarViewLightTextColor : mConfig.taskBarViewDarkTextColor);
+            mCurrentPrimaryColorIsDark = primaryColorIsDark;
+        }
+    }
+
+    /**
+     * Returns a drawable of a cached icon for this view.  The cached icon is shared by the tasks
+     * of an activity, and a drawable holds its bounds, callback and state, so each view draws its
+     * own drawable from the icon's constant state.
+     */
+    Drawable newIconDrawable(Drawable icon) {
+        if (icon == null) {
+            return null;
         }
+        Drawable.ConstantState state = icon.getConstantState();
+        return (state != null) ? state.newDrawable(getResources()) : icon;
     }
 
-    /** Unbinds the bar view from the task */
+    /** Unbinds the bar view from the task, dropping the drawable of its icon */
     void unbindFromTask() {
         mApplicationIcon.setImageDrawable(null);
+        mBoundIcon = null;
     }
 
     @Override
@@ -19,6 +19,7 @@ import android.view.View;
 
 import com.argonmobile.stackview.RecentsConfiguration;
 import com.argonmobile.stackview.model.Profile;
+import com.argonmobile.stackview.model.TaskBindPayload;
 
 
 /** The task thumbnail view */
@@ -35,6 +36,8 @@ public class TaskViewThumbnail extends View {
     private final RectF mBitmapRect = new RectF();
     private final RectF mLayoutRect = new RectF();
     private BitmapShader mBitmapShader;
+    // The payload whose shader is bound, which is scaled to the size of this view already
+    private TaskBindPayload mBoundPayload;
     private float mBitmapAlpha;
     private float mDimAlpha;
     private View mTaskBar;
@@ -134,16 +137,38 @@ public class TaskViewThumbnail extends View {
         setImageBitmap(null);
     }
 
-    /** Binds the thumbnail view to the task */
+    /**
+     * Binds the thumbnail view to the task, showing the preview of the thumbnail stretched to the
+     * same bounds until the thumbnail itself is loaded
+     */
     void rebindToTask(Profile t) {
-        if (t.thumbnail != null) {
+        TaskBindPayload payload = t.bindPayload;
+        if (t.thumbnail != null && payload != null &&
+                payload.isValidFor(t.thumbnail, getWidth(), getHeight())) {
+            bindToPayload(payload);
+        } else if (t.thumbnail != null) {
             setImageBitmap(t.thumbnail);
+        } else if (t.thumbnailPreview != null) {
+            setImageBitmap(t.thumbnailPreview);
         } else {
             setImageBitmap(null);
         }
     }
 
+    /** Binds the shader of a payload that was prepared for the size of this view */
+    private void bindToPayload(TaskBindPayload payload) {
+        if (mBoundPayload == payload) {
+            return;
+        }
+        mBoundPayload = payload;
+        mBitmapShader = payload.thumbnailShader;
+        mDrawPaint.setShader(mBitmapShader);
+        mBitmapRect.set(0, 0, payload.thumbnail.getWidth(), payload.thumbnail.getHeight());
+        updateFilter();
+    }
+
     public void setImageBitmap(Bitmap bm) {
+        mBoundPayload = null;
         if (bm != null) {
             mBitmapShader = new BitmapShader(bm, Shader.TileMode.CLAMP,
                     Shader.TileMode.CLAMP);
@@ -162,7 +187,12 @@ public class TaskViewThumbnail extends View {
         super.onLayout(changed, left, top, right, bottom);
         if (changed) {
             mLayoutRect.set(0, 0, getWidth(), getHeight());
-            updateBitmapScale();
+            if (mBoundPayload != null) {
+                // The shader of the payload is shared, so scale a shader of our own instead
+                setImageBitmap(mBoundPayload.thumbnail);
+            } else {
+                updateBitmapScale();
+            }
         }
     }
 
@@ -18,8 +18,10 @@ package com.argonmobile.stackview.view;
 
 import android.content.Context;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 
 
 /* A view pool to manage more views than we can visibly handle */
@@ -49,6 +51,28 @@ public class ViewPool<V, T> {
         mPool.push(v);
     }
 
+    /** Returns the number of views in the pool */
+    int size() {
+        return mPool.size();
+    }
+
+    /** Returns an iterator to the list of the views in the pool. */
+    Iterator<V> poolViewIterator() {
+        return mPool.iterator();
+    }
+
+    /**
+     * Drops the views that were returned to the pool first until it holds no more than a number
+     * of views, and returns the dropped views, which the consumer still has to release
+     */
+    List<V> trimToSize(int maxSize) {
+        ArrayList<V> trimmedViews = new ArrayList<V>();
+        while (mPool.size() > Math.max(0, maxSize)) {
+            trimmedViews.add(mPool.removeLast());
+        }
+        return trimmedViews;
+    }
+
     /** Gets a view from the pool and prepares it */
     V pickUpViewFromPool(T preferredData, T prepareData) {
         V v = null;
@@ -0,0 +1,83 @@
+package com.argonmobile.stackview.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PendingChangesTest {
+
+    ProfileStack mStack;
+    ProfileStackEditorTest.DiffRecorder mRecorder;
+
+    @Before
+    public void setUp() {
+        mStack = new ProfileStack();
+        mStack.setTasks(Arrays.asList(ProfileStackEditorTest.newTask(1),
+                ProfileStackEditorTest.newTask(2), ProfileStackEditorTest.newTask(3)));
+        mRecorder = new ProfileStackEditorTest.DiffRecorder();
+        mStack.setCallbacks(mRecorder);
+    }
+
+    @Test
+    public void postedChangesAreDrainedInOneCallback() throws InterruptedException {
+        final Profile t1 = mStack.findTaskWithId(1);
+        Thread poster = new Thread() {
+            @Override
+            public void run() {
+                for (int id = 4; id < 104; id++) {
+                    mStack.postAddTask(ProfileStackEditorTest.newTask(id));
+                }
+                mStack.postRemoveTask(t1);
+                mStack.postMoveTask(t1, 0);
+            }
+        };
+        poster.start();
+        poster.join();
+
+        // Nothing changes until the changes are applied on the next frame
+        assertEquals(3, mStack.getTaskCount());
+        assertTrue(mStack.mApplyPendingChangesScheduled.get());
+
+        mStack.applyPendingChanges();
+        assertEquals(102, mStack.getTaskCount());
+        assertEquals(-1, mStack.indexOfTask(t1));
+        assertEquals(1, mRecorder.diffs.size());
+        assertTrue(mStack.mPendingChanges.isEmpty());
+        assertFalse(mStack.mApplyPendingChangesScheduled.get());
+
+        // A frame without posted changes makes no callback
+        mStack.applyPendingChanges();
+        assertEquals(1, mRecorder.diffs.size());
+    }
+
+    @Test
+    public void changePostedAfterDrainingSchedulesAnotherFrame() {
+        mStack.postAddTask(ProfileStackEditorTest.newTask(4));
+        mStack.applyPendingChanges();
+        assertFalse(mStack.mApplyPendingChangesScheduled.get());
+
+        mStack.postSetTasks(Arrays.asList(ProfileStackEditorTest.newTask(5)));
+        assertTrue(mStack.mApplyPendingChangesScheduled.get());
+        mStack.applyPendingChanges();
+        assertEquals(1, mStack.getTaskCount());
+        assertEquals(2, mRecorder.diffs.size());
+    }
+
+    @Test
+    public void changesPostedDuringABatchJoinIt() {
+        ProfileStack.Editor editor = mStack.beginBatch();
+        mStack.postAddTask(ProfileStackEditorTest.newTask(4));
+        mStack.applyPendingChanges();
+        assertEquals(3, mStack.getTaskCount());
+        assertTrue(mRecorder.diffs.isEmpty());
+
+        editor.commit();
+        assertEquals(4, mStack.getTaskCount());
+        assertEquals(1, mRecorder.diffs.size());
+    }
+}
@@ -0,0 +1,153 @@
+package com.argonmobile.stackview.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ProfileStackEditorTest {
+
+    /** Records the diffs delivered by a stack */
+    static class DiffRecorder implements ProfileStack.TaskStackCallbacks {
+        ArrayList<StackDiff> diffs = new ArrayList<StackDiff>();
+
+        @Override
+        public void onStackTaskAdded(ProfileStack stack, Profile t) {}
+
+        @Override
+        public void onStackTaskRemoved(ProfileStack stack, Profile removedTask,
+                Profile newFrontMostTask) {}
+
+        @Override
+        public void onStackFiltered(ProfileStack newStack, ProfileStackSnapshot curTasks,
+                Profile t) {}
+
+        @Override
+        public void onStackUnfiltered(ProfileStack newStack, ProfileStackSnapshot curTasks) {}
+
+        @Override
+        public void onStackChanged(ProfileStack stack, StackDiff diff) {
+            diffs.add(diff);
+        }
+    }
+
+    ProfileStack mStack;
+    DiffRecorder mRecorder;
+
+    static Profile newTask(int id) {
+        Profile t = new Profile();
+        t.key.id = id;
+        return t;
+    }
+
+    static List<Integer> ids(List<Profile> tasks) {
+        ArrayList<Integer> ids = new ArrayList<Integer>();
+        for (Profile t : tasks) {
+            ids.add(t.key.id);
+        }
+        return ids;
+    }
+
+    @Before
+    public void setUp() {
+        mStack = new ProfileStack();
+        mStack.setTasks(Arrays.asList(newTask(1), newTask(2), newTask(3)));
+        mRecorder = new DiffRecorder();
+        mStack.setCallbacks(mRecorder);
+    }
+
+    @Test
+    public void commitAppliesAllChangesWithOneCallback() {
+        Profile t1 = mStack.findTaskWithId(1);
+        Profile t3 = mStack.findTaskWithId(3);
+        mStack.beginBatch()
+                .addTask(newTask(4))
+                .removeTask(t1)
+                .moveTask(t3, 0)
+                .commit();
+
+        assertEquals(Arrays.asList(3, 2, 4), ids(mStack.getTasks()));
+        assertEquals(1, mRecorder.diffs.size());
+        assertEquals(3, mRecorder.diffs.get(0).getChanges().size());
+    }
+
+    @Test
+    public void commitWithoutChangesMakesNoCallback() {
+        mStack.beginBatch().commit();
+        mStack.beginBatch().removeTask(newTask(42)).commit();
+
+        assertEquals(Arrays.asList(1, 2, 3), ids(mStack.getTasks()));
+        assertTrue(mRecorder.diffs.isEmpty());
+    }
+
+    @Test
+    public void removedTaskCanBeAddedBackInTheSameBatch() {
+        Profile t2 = mStack.findTaskWithId(2);
+        mStack.beginBatch().removeTask(t2).addTask(t2).commit();
+
+        assertEquals(Arrays.asList(1, 3, 2), ids(mStack.getTasks()));
+        assertEquals(2, mStack.indexOfTask(t2));
+    }
+
+    @Test
+    public void addingATaskAlreadyInTheStackIsIgnored() {
+        Profile t2 = mStack.findTaskWithId(2);
+        mStack.beginBatch().addTask(t2).commit();
+        assertTrue(mRecorder.diffs.isEmpty());
+
+        Profile t4 = newTask(4);
+        mStack.beginBatch().addTask(t4).addTask(t4).addTask(t2).commit();
+        assertEquals(Arrays.asList(1, 2, 3, 4), ids(mStack.getTasks()));
+        assertEquals(1, t2.group.getTaskCount());
+    }
+
+    @Test
+    public void setTasksReplacesTheTasks() {
+        mStack.beginBatch().setTasks(Arrays.asList(newTask(5), newTask(6))).commit();
+
+        assertEquals(Arrays.asList(5, 6), ids(mStack.getTasks()));
+        assertEquals(-1, mStack.indexOfTask(newTask(1)));
+    }
+
+    @Test
+    public void removingAnotherInstanceRemovesTheStoredTask() {
+        Profile t2 = mStack.findTaskWithId(2);
+        mStack.removeTask(newTask(2));
+
+        assertEquals(Arrays.asList(1, 3), ids(mStack.getTasks()));
+        assertEquals(Arrays.asList(1, 3), ids(mStack.mTaskList.mTasks));
+        assertNull(t2.group);
+
+        // The base list keeps matching the filtered list while a filter is set
+        for (int id = 4; id < 8; id++) {
+            Profile t = newTask(id);
+            t.activityLabel = (id % 2 == 0) ? "Mail" : "Maps";
+            mStack.addTask(t);
+        }
+        mStack.filterTasksByLabel("Mail");
+        mStack.removeTask(newTask(6));
+        assertEquals(Arrays.asList(4), ids(mStack.getTasks()));
+        mStack.unfilterTasks();
+        assertEquals(Arrays.asList(1, 3, 4, 5, 7), ids(mStack.getTasks()));
+    }
+
+    @Test
+    public void onlyOneBatchAtATime() {
+        ProfileStack.Editor editor = mStack.beginBatch();
+        try {
+            mStack.beginBatch();
+            fail("A second batch was started");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        editor.commit();
+        mStack.beginBatch().commit();
+    }
+}
@@ -0,0 +1,88 @@
+package com.argonmobile.stackview.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ProfileStackSnapshotTest {
+
+    ProfileStack mStack;
+
+    static Profile newTask(int id, String label) {
+        Profile t = new Profile();
+        t.key.id = id;
+        t.activityLabel = label;
+        return t;
+    }
+
+    @Before
+    public void setUp() {
+        mStack = new ProfileStack();
+        mStack.setTasks(Arrays.asList(newTask(1, "Mail"), newTask(2, "Maps"),
+                newTask(3, "Music")));
+    }
+
+    @Test
+    public void snapshotIsUnchangedByLaterWrites() {
+        ProfileStackSnapshot snapshot = mStack.snapshot();
+        mStack.addTask(newTask(4, "Notes"));
+        mStack.removeTask(mStack.findTaskWithId(1));
+
+        assertEquals(3, snapshot.getTaskCount());
+        assertEquals(1, snapshot.getTask(0).key.id);
+        assertEquals(2, snapshot.indexOfTask(newTask(3, null)));
+        assertNull(snapshot.findTaskWithId(4));
+        assertEquals(3, mStack.getTaskCount());
+        assertEquals(4, mStack.getFrontMostTask().key.id);
+    }
+
+    @Test
+    public void snapshotIsSharedUntilTheNextWrite() {
+        ArrayList<Profile> tasks = mStack.getTasks();
+        ProfileStackSnapshot snapshot = mStack.snapshot();
+        assertSame(snapshot, mStack.snapshot());
+        assertSame(tasks, snapshot.mTasks);
+
+        mStack.addTask(newTask(4, "Notes"));
+        assertNotSame(tasks, mStack.getTasks());
+        assertNotSame(snapshot, mStack.snapshot());
+    }
+
+    @Test
+    public void writesWithoutReadersDoNotCopy() {
+        ArrayList<Profile> tasks = mStack.getTasks();
+        mStack.addTask(newTask(4, "Notes"));
+        mStack.removeTask(mStack.findTaskWithId(2));
+        assertSame(tasks, mStack.getTasks());
+    }
+
+    @Test
+    public void filterChangesDoNotLeaveTheListShared() {
+        mStack.filterTasksByLabel("mus");
+        mStack.unfilterTasks();
+        ArrayList<Profile> tasks = mStack.getTasks();
+        mStack.addTask(newTask(4, "Notes"));
+        assertSame(tasks, mStack.getTasks());
+    }
+
+    @Test
+    public void snapshotKeepsItsFilterState() {
+        mStack.filterTasksByLabel("ma");
+        ProfileStackSnapshot filtered = mStack.snapshot();
+        mStack.unfilterTasks();
+
+        assertTrue(filtered.isFiltered());
+        assertEquals(2, filtered.getTaskCount());
+        assertFalse(mStack.snapshot().isFiltered());
+        assertEquals(3, mStack.snapshot().getTaskCount());
+    }
+}
@@ -0,0 +1,96 @@
+package com.argonmobile.stackview.model;
+
+import com.argonmobile.stackview.Constants;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ProfileTableTest {
+
+    static ProfileTable newTable(int rowCount) {
+        ProfileTable table = new ProfileTable(rowCount);
+        for (int row = 0; row < rowCount; row++) {
+            table.addRow(1000 + row, row / 10, (row % 3 == 0) ? null : "App " + (row % 7),
+                    row == rowCount - 1);
+        }
+        return table;
+    }
+
+    @Test
+    public void rowsRoundTrip() {
+        ProfileTable table = newTable(100);
+
+        assertEquals(100, table.getRowCount());
+        assertEquals(42, table.findRowWithId(1042));
+        assertEquals(-1, table.findRowWithId(42));
+        Profile t = table.getProfile(41);
+        assertEquals(1041, t.key.id);
+        assertEquals(4, t.taskAffiliation);
+        assertEquals("App 6", t.activityLabel);
+        assertFalse(t.isLaunchTarget);
+        assertNull(table.getLabel(42));
+        assertTrue(table.isLaunchTarget(99));
+    }
+
+    @Test
+    public void labelsArePooled() {
+        ProfileTable table = newTable(100);
+        assertSame(table.getLabel(1), table.getLabel(8));
+    }
+
+    @Test
+    public void presizedRowsTakeUnderFiftyBytes() {
+        int rowCount = 100000;
+        ProfileTable table = newTable(rowCount);
+
+        // The int columns, the id index keys, values and used flags, and the launch target bits
+        long bytes = 12L * table.mIds.length + 9L * table.mRowIndices.mKeys.length +
+                table.mLaunchTargets.size() / 8;
+        assertTrue(bytes >= 30L * rowCount);
+        assertTrue(bytes <= 48L * rowCount);
+    }
+
+    @Test
+    public void duplicateIdsAreRejected() {
+        ProfileTable table = newTable(10);
+        try {
+            table.addRow(1005, 0, null, false);
+            fail("A duplicate id was added");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void stackOnlyBindsTheRowsInItsWindow() {
+        ProfileTable table = newTable(10000);
+        ProfileStack stack = new ProfileStack();
+        stack.setTasks(table);
+
+        assertTrue(stack.isPaged());
+        assertEquals(10000, stack.getTotalTaskCount());
+        assertEquals(0, stack.getTaskCount());
+        // Tasks outside of the window are found by their index in the table
+        assertEquals(5000, stack.findTaskIndexWithId(6000));
+        assertEquals(-1, stack.findTaskIndexWithId(42));
+
+        stack.ensureWindow(5000, 5010);
+        int maxWindowSize = (Constants.Values.ProfileStack.WindowPageCount + 1) *
+                Constants.Values.ProfileStack.PageSize;
+        ArrayList<Profile> window = stack.getTasks();
+        assertTrue(window.size() <= maxWindowSize);
+        int windowStart = stack.getWindowStart();
+        assertTrue(windowStart <= 5000 && 5010 < windowStart + window.size());
+        for (int i = 0; i < window.size(); i++) {
+            assertEquals(1000 + windowStart + i, window.get(i).key.id);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.argonmobile.stackview.model;
+
+import android.graphics.Bitmap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RecentProfileLoaderTest {
+
+    BitmapPool mBitmapPool;
+    RecentProfileLoader mLoader;
+    ProfileStack mStack;
+
+    /** Creates a bitmap without pixels, which the framework can not allocate in these tests */
+    static Bitmap newBitmap() throws Exception {
+        Constructor<?> constructor = Bitmap.class.getDeclaredConstructors()[0];
+        Class<?>[] types = constructor.getParameterTypes();
+        Object[] args = new Object[types.length];
+        for (int i = 0; i < types.length; i++) {
+            if (types[i].isPrimitive()) {
+                args[i] = Array.get(Array.newInstance(types[i], 1), 0);
+            }
+        }
+        constructor.setAccessible(true);
+        return (Bitmap) constructor.newInstance(args);
+    }
+
+    @Before
+    public void setUp() {
+        mBitmapPool = new BitmapPool(1 << 20);
+        mLoader = new RecentProfileLoader(mBitmapPool, 10);
+        mStack = new ProfileStack();
+        mStack.setTasks(Arrays.asList(ProfileStackEditorTest.newTask(1),
+                ProfileStackEditorTest.newTask(2)));
+    }
+
+    @Test
+    public void removedStackReleasesAllItsThumbnails() throws Exception {
+        // A load delivered to a task that never got a view, as the preloaded ones are
+        Profile t1 = mStack.findTaskWithId(1);
+        Bitmap thumbnail = newBitmap();
+        mBitmapPool.acquire(thumbnail);
+        RecentProfileLoader.TaskLoadRequest request =
+                new RecentProfileLoader.TaskLoadRequest(t1.key, null, t1, 0, 0);
+        mLoader.mActiveRequests.put(t1.key, request);
+        mLoader.deliverRequest(request, thumbnail, null);
+        assertSame(thumbnail, t1.thumbnail);
+        assertEquals(1, mBitmapPool.mRefCounts.size());
+
+        // And a load that is still queued
+        Profile t2 = mStack.findTaskWithId(2);
+        mLoader.loadTaskData(t2, 1);
+        assertEquals(1, mLoader.mRequestQueue.size());
+
+        mLoader.unloadTasks(mStack);
+        assertTrue(mBitmapPool.mRefCounts.isEmpty());
+        assertNull(t1.thumbnail);
+        assertTrue(mLoader.mActiveRequests.isEmpty());
+        assertTrue(mLoader.mRequestQueue.isEmpty());
+    }
+
+    @Test
+    public void movingTheVisibleRangeWakesAnIdleLoaderThread() throws InterruptedException {
+        final boolean[] woken = new boolean[1];
+        Thread loaderThread = new Thread() {
+            @Override
+            public void run() {
+                // Ends with null so that the thread looks for cold thumbnails to compact
+                woken[0] = (mLoader.takeNextRequest(true) == null);
+            }
+        };
+        loaderThread.start();
+        mLoader.setVisibleRange(40, 30);
+        loaderThread.join(5000);
+        assertTrue(woken[0]);
+    }
+}
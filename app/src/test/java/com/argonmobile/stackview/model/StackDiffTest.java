@@ -0,0 +1,151 @@
+package com.argonmobile.stackview.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StackDiffTest {
+
+    static List<Profile> tasks(int... ids) {
+        ArrayList<Profile> tasks = new ArrayList<Profile>();
+        for (int id : ids) {
+            Profile t = new Profile();
+            t.key.id = id;
+            tasks.add(t);
+        }
+        return tasks;
+    }
+
+    static int count(StackDiff diff, int type) {
+        int count = 0;
+        for (ProfileStack.TaskListChange change : diff.getChanges()) {
+            if (change.type == type) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /** Applies a diff to the old list, checking that it produces the new one */
+    static void assertDiffApplies(List<Profile> oldTasks, List<Profile> newTasks, StackDiff diff) {
+        Profile[] result = new Profile[newTasks.size()];
+        boolean[] dropped = new boolean[oldTasks.size()];
+        for (ProfileStack.TaskListChange change : diff.getChanges()) {
+            if (change.fromIndex >= 0) {
+                assertEquals(oldTasks.get(change.fromIndex).key.id, change.task.key.id);
+                dropped[change.fromIndex] = true;
+            }
+            if (change.toIndex >= 0) {
+                result[change.toIndex] = change.task;
+            }
+        }
+        // The tasks that did not change keep their relative order in the free slots
+        int slot = 0;
+        for (int i = 0; i < oldTasks.size(); i++) {
+            if (!dropped[i]) {
+                while (result[slot] != null) {
+                    slot++;
+                }
+                result[slot] = oldTasks.get(i);
+            }
+        }
+        for (int i = 0; i < result.length; i++) {
+            assertEquals(newTasks.get(i).key.id, result[i].key.id);
+        }
+    }
+
+    @Test
+    public void identicalListsHaveAnEmptyDiff() {
+        assertTrue(StackDiff.compute(tasks(1, 2, 3), tasks(1, 2, 3)).isEmpty());
+    }
+
+    @Test
+    public void filteringOnlyRemoves() {
+        List<Profile> oldTasks = tasks(1, 2, 3, 4, 5);
+        List<Profile> newTasks = tasks(2, 4);
+        StackDiff diff = StackDiff.compute(oldTasks, newTasks);
+
+        assertEquals(3, count(diff, ProfileStack.TaskListChange.TYPE_REMOVE));
+        assertEquals(3, diff.getChanges().size());
+        assertDiffApplies(oldTasks, newTasks, diff);
+    }
+
+    @Test
+    public void unfilteringOnlyInserts() {
+        List<Profile> oldTasks = tasks(2, 4);
+        List<Profile> newTasks = tasks(1, 2, 3, 4, 5);
+        StackDiff diff = StackDiff.compute(oldTasks, newTasks);
+
+        assertEquals(3, count(diff, ProfileStack.TaskListChange.TYPE_INSERT));
+        assertEquals(3, diff.getChanges().size());
+        assertDiffApplies(oldTasks, newTasks, diff);
+    }
+
+    @Test
+    public void movingOneTaskIsOneMove() {
+        List<Profile> oldTasks = tasks(1, 2, 3, 4, 5);
+        List<Profile> newTasks = tasks(2, 3, 4, 5, 1);
+        StackDiff diff = StackDiff.compute(oldTasks, newTasks);
+
+        assertEquals(1, diff.getChanges().size());
+        ProfileStack.TaskListChange change = diff.getChanges().get(0);
+        assertEquals(ProfileStack.TaskListChange.TYPE_MOVE, change.type);
+        assertEquals(1, change.task.key.id);
+        assertEquals(0, change.fromIndex);
+        assertEquals(4, change.toIndex);
+    }
+
+    @Test
+    public void randomChangesApply() {
+        Random random = new Random(7);
+        for (int run = 0; run < 200; run++) {
+            ArrayList<Integer> ids = new ArrayList<Integer>();
+            for (int id = 0; id < 40; id++) {
+                if (random.nextBoolean()) {
+                    ids.add(id);
+                }
+            }
+            ArrayList<Integer> newIds = new ArrayList<Integer>();
+            for (int id = 0; id < 40; id++) {
+                if (random.nextInt(3) > 0) {
+                    newIds.add(id);
+                }
+            }
+            Collections.shuffle(ids, random);
+            Collections.shuffle(newIds.subList(0, newIds.size() / 4), random);
+            List<Profile> oldTasks = tasks(toArray(ids));
+            List<Profile> newTasks = tasks(toArray(newIds));
+            assertDiffApplies(oldTasks, newTasks, StackDiff.compute(oldTasks, newTasks));
+        }
+    }
+
+    @Test
+    public void longestIncreasingSubsequenceIsMarked() {
+        int[] values = new int[] { 3, 1, 4, 1, 5, 9, 2, 6 };
+        boolean[] marked = StackDiff.longestIncreasingSubsequence(values, values.length);
+        int length = 0;
+        int last = Integer.MIN_VALUE;
+        for (int i = 0; i < values.length; i++) {
+            if (marked[i]) {
+                assertTrue(values[i] > last);
+                last = values[i];
+                length++;
+            }
+        }
+        assertEquals(4, length);
+    }
+
+    static int[] toArray(List<Integer> ids) {
+        int[] array = new int[ids.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = ids.get(i);
+        }
+        return array;
+    }
+}
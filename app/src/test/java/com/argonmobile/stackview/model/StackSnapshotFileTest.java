@@ -0,0 +1,111 @@
+package com.argonmobile.stackview.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class StackSnapshotFileTest {
+
+    File mFile;
+
+    static Profile newTask(int id, String label) {
+        Profile t = new Profile();
+        t.key.id = id;
+        t.activityLabel = label;
+        return t;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("stack", ".snapshot");
+        mFile.deleteOnExit();
+        ProfileStack stack = new ProfileStack();
+        stack.setTasks(Arrays.asList(newTask(1, "Mail"), newTask(2, null), newTask(3, "Mail"),
+                newTask(4, "Maps")));
+        StackSnapshotFile.write(mFile, StackSnapshotFile.capture(stack, 3, 1.5f, null));
+    }
+
+    static byte[] read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+            return bytes;
+        } finally {
+            raf.close();
+        }
+    }
+
+    static void assertCorrupt(ByteBuffer buffer) {
+        try {
+            new StackSnapshotFile(buffer, null);
+            fail("A corrupt snapshot was read");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void snapshotReadsBackTheTasks() throws IOException {
+        StackSnapshotFile snapshot = StackSnapshotFile.map(mFile, null);
+        assertEquals(3, snapshot.getScrollTaskId());
+        assertEquals(1.5f, snapshot.getScrollTaskOffset(), 0f);
+        assertEquals(2, snapshot.indexOfTaskId(3));
+        assertEquals(-1, snapshot.indexOfTaskId(5));
+        assertEquals(0, snapshot.getWindowStart());
+        assertEquals(4, snapshot.getCount());
+
+        ArrayList<Profile> tasks = new ArrayList<Profile>();
+        snapshot.loadPage(1, 10, tasks);
+        assertEquals(3, tasks.size());
+        assertEquals(2, tasks.get(0).key.id);
+        assertNull(tasks.get(0).activityLabel);
+        assertEquals("Mail", tasks.get(1).activityLabel);
+        assertEquals("Maps", tasks.get(2).activityLabel);
+        assertNull(snapshot.loadThumbnail(tasks.get(1).key, 0));
+    }
+
+    @Test
+    public void truncatedSnapshotIsRejected() throws IOException {
+        byte[] bytes = read(mFile);
+        // Cut into the label chars, which follow the records and the label offsets
+        for (int size : new int[] { 0, 16, bytes.length - 1 }) {
+            assertCorrupt(ByteBuffer.wrap(Arrays.copyOf(bytes, size)));
+        }
+    }
+
+    @Test
+    public void corruptOffsetsAreRejected() throws IOException {
+        byte[] bytes = read(mFile);
+        int labelsOffset = ByteBuffer.wrap(bytes).getInt(24);
+
+        // A label that ends past the chars
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.clone());
+        buffer.putInt(labelsOffset + 4, 1000);
+        assertCorrupt(buffer);
+
+        // A record with a label that is not in the pool
+        buffer = ByteBuffer.wrap(bytes.clone());
+        buffer.putInt(StackSnapshotFile.HeaderSize + 8, 7);
+        assertCorrupt(buffer);
+
+        // A record with a thumbnail past the end of the file
+        buffer = ByteBuffer.wrap(bytes.clone());
+        buffer.putInt(StackSnapshotFile.HeaderSize + 16, bytes.length);
+        buffer.putInt(StackSnapshotFile.HeaderSize + 20, 4);
+        buffer.putInt(StackSnapshotFile.HeaderSize + 24, 4);
+        assertCorrupt(buffer);
+
+        assertEquals(4, new StackSnapshotFile(ByteBuffer.wrap(bytes), null).getCount());
+    }
+}
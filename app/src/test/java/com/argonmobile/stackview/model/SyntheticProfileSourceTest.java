@@ -0,0 +1,39 @@
+package com.argonmobile.stackview.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SyntheticProfileSourceTest {
+
+    @Test
+    public void affiliationsArePositiveAndBelowTheIndividualIds() {
+        SyntheticProfileSource source = new SyntheticProfileSource(200000, 3, 2, 10, 10, null);
+        for (int index : new int[] { 0, 1, 2, 131067, 131068, 131069, 199999 }) {
+            int affiliation = source.getAffiliation(index);
+            assertTrue(affiliation > 0);
+            assertTrue(affiliation < ProfileStack.IndividualTaskIdOffset);
+        }
+        assertEquals(source.getAffiliation(0), source.getAffiliation(1));
+        assertTrue(source.getAffiliation(1) != source.getAffiliation(2));
+    }
+
+    @Test
+    public void tasksOfAGroupAreGroupedTogether() {
+        SyntheticProfileSource source = new SyntheticProfileSource(9, 3, 3, 10, 10, null);
+        ArrayList<Profile> tasks = new ArrayList<Profile>();
+        source.loadPage(0, source.getCount(), tasks);
+        ProfileStack stack = new ProfileStack();
+        stack.setTasks(tasks);
+
+        // The first group is grouped like the others, rather than split up
+        assertSame(tasks.get(0).group, tasks.get(2).group);
+        assertEquals(3, tasks.get(0).group.getTaskCount());
+        assertNotSame(tasks.get(2).group, tasks.get(3).group);
+    }
+}
@@ -0,0 +1,66 @@
+package com.argonmobile.stackview.model;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TaskGroupingTest {
+
+    static Profile newTask(int id, int affiliation) {
+        Profile t = new Profile();
+        t.key.id = id;
+        t.taskAffiliation = affiliation;
+        return t;
+    }
+
+    @Test
+    public void tasksAreGroupedByAffiliation() {
+        ProfileStack stack = new ProfileStack();
+        Profile t1 = newTask(1, 7);
+        Profile t2 = newTask(2, 7);
+        Profile t3 = newTask(3, 0);
+        stack.setTasks(Arrays.asList(t1, t2, t3));
+
+        assertEquals(2, stack.getGroupCount());
+        assertSame(t1.group, t2.group);
+        assertTrue(t2.group.isFrontMostTask(t2));
+        assertEquals(1, t3.group.getTaskCount());
+    }
+
+    @Test
+    public void settingAnotherGroupLeavesTheOldOne() {
+        TaskGrouping first = new TaskGrouping(1);
+        TaskGrouping second = new TaskGrouping(2);
+        Profile t = newTask(1, 1);
+        first.addTask(t);
+        second.addTask(t);
+
+        assertSame(second, t.group);
+        assertFalse(first.containsTask(t));
+        assertNull(first.getFrontMostTaskKey());
+        assertTrue(second.isFrontMostTask(t));
+    }
+
+    @Test
+    public void taskAddedToAnotherStackIsRegrouped() {
+        ProfileStack first = new ProfileStack();
+        ProfileStack second = new ProfileStack();
+        Profile t = newTask(1, 5);
+        first.addTask(t);
+        TaskGrouping firstGroup = t.group;
+        second.addTask(t);
+
+        assertSame(second.getGroupWithAffiliation(5), t.group);
+        assertFalse(firstGroup.containsTask(t));
+
+        // Removing it from the stack it left does not drop the other stack's group
+        first.removeTask(t);
+        assertSame(second.getGroupWithAffiliation(5), t.group);
+    }
+}
@@ -0,0 +1,102 @@
+package com.argonmobile.stackview.model;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TaskIdIndexTest {
+
+    /** Returns a number of task ids that all hash to the same slot of an index */
+    static int[] findCollidingIds(TaskIdIndex index, int count) {
+        int[] ids = new int[count];
+        int home = -1;
+        int found = 0;
+        for (int id = 0; found < count; id++) {
+            int h = id * 0x9E3779B9;
+            int slot = (h ^ (h >>> 16)) & index.mMask;
+            if (home == -1) {
+                home = slot;
+            }
+            if (slot == home) {
+                ids[found++] = id;
+            }
+        }
+        return ids;
+    }
+
+    @Test
+    public void removeKeepsCollidingEntriesReachable() {
+        TaskIdIndex index = new TaskIdIndex();
+        int[] ids = findCollidingIds(index, 4);
+        for (int i = 0; i < ids.length; i++) {
+            index.put(ids[i], i);
+        }
+
+        // Removing the head of the probe sequence shifts the others back
+        assertTrue(index.remove(ids[0]));
+        assertFalse(index.containsKey(ids[0]));
+        for (int i = 1; i < ids.length; i++) {
+            assertEquals(i, index.get(ids[i], -1));
+        }
+
+        // And removing from the middle keeps the tail reachable
+        assertTrue(index.remove(ids[2]));
+        assertEquals(1, index.get(ids[1], -1));
+        assertEquals(3, index.get(ids[3], -1));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void removeMissingIdReturnsFalse() {
+        TaskIdIndex index = new TaskIdIndex();
+        index.put(7, 1);
+        assertFalse(index.remove(8));
+        assertTrue(index.remove(7));
+        assertFalse(index.remove(7));
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void matchesHashMapUnderRandomOperations() {
+        TaskIdIndex index = new TaskIdIndex();
+        HashMap<Integer, Integer> expected = new HashMap<Integer, Integer>();
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            int id = random.nextInt(512);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(id) != null, index.remove(id));
+            } else {
+                expected.put(id, i);
+                index.put(id, i);
+            }
+        }
+
+        assertEquals(expected.size(), index.size());
+        for (int id = 0; id < 512; id++) {
+            Integer value = expected.get(id);
+            assertEquals((value != null) ? value : -1, index.get(id, -1));
+        }
+        for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+            assertTrue(index.containsKey(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void clearRemovesEverything() {
+        TaskIdIndex index = new TaskIdIndex(100);
+        for (int id = 0; id < 100; id++) {
+            index.put(id, id);
+        }
+        index.clear();
+        assertEquals(0, index.size());
+        assertFalse(index.containsKey(50));
+        index.put(50, 5);
+        assertEquals(5, index.get(50, -1));
+    }
+}
@@ -0,0 +1,100 @@
+package com.argonmobile.stackview.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TaskLabelIndexTest {
+
+    ProfileStack mStack;
+
+    static Profile newTask(int id, String label) {
+        Profile t = new Profile();
+        t.key.id = id;
+        t.activityLabel = label;
+        return t;
+    }
+
+    static List<Integer> ids(List<Profile> tasks) {
+        ArrayList<Integer> ids = new ArrayList<Integer>();
+        for (Profile t : tasks) {
+            ids.add(t.key.id);
+        }
+        return ids;
+    }
+
+    @Before
+    public void setUp() {
+        mStack = new ProfileStack();
+        mStack.setTasks(Arrays.asList(newTask(1, "Calendar"), newTask(2, "Calculator"),
+                newTask(3, "Camera"), newTask(4, "Clock")));
+    }
+
+    @Test
+    public void filterMatchesLabelsIgnoringCase() {
+        mStack.filterTasksByLabel("CAL");
+        assertEquals(Arrays.asList(1, 2), ids(mStack.getTasks()));
+
+        mStack.filterTasksByLabel("ca");
+        assertEquals(Arrays.asList(1, 2, 3), ids(mStack.getTasks()));
+
+        mStack.filterTasksByLabel("");
+        assertFalse(mStack.hasFilteredTasks());
+        assertEquals(4, mStack.getTaskCount());
+    }
+
+    @Test
+    public void extendingTheQueryNarrowsTheFilter() {
+        mStack.filterTasksByLabel("cal");
+        TaskFilter prevFilter = mStack.mTaskList.mFilter;
+        mStack.filterTasksByLabel("calc");
+
+        TaskLabelIndex.LabelFilter filter = (TaskLabelIndex.LabelFilter) mStack.mTaskList.mFilter;
+        assertTrue(filter.narrows(prevFilter));
+        assertEquals(Arrays.asList(2), ids(mStack.getTasks()));
+        assertEquals(-1, mStack.indexOfTask(newTask(1, null)));
+        assertEquals(0, mStack.indexOfTask(newTask(2, null)));
+    }
+
+    @Test
+    public void queriesDoNotGrowTheIndex() {
+        int postingCount = mStack.mLabelIndex.mPostings.size();
+        mStack.filterTasksByLabel("xyzzy");
+        mStack.filterTasksByLabel("qwertyuiop");
+
+        assertEquals(0, mStack.getTaskCount());
+        assertEquals(postingCount, mStack.mLabelIndex.mPostings.size());
+    }
+
+    @Test
+    public void filterAcceptsTasksAddedWithANewTrigram() {
+        mStack.filterTasksByLabel("note");
+        assertEquals(0, mStack.getTaskCount());
+
+        mStack.addTask(newTask(5, "Notes"));
+        assertEquals(Arrays.asList(5), ids(mStack.getTasks()));
+    }
+
+    @Test
+    public void commitOnlyIndexesChangedTasks() {
+        Profile clock = mStack.findTaskWithId(4);
+        Profile camera = mStack.findTaskWithId(3);
+        // A label changed without re-adding the task keeps its old entry
+        camera.activityLabel = "Gallery";
+
+        mStack.beginBatch().removeTask(clock).addTask(newTask(5, "Contacts")).commit();
+
+        TaskLabelIndex index = mStack.mLabelIndex;
+        assertEquals(4, index.size());
+        assertFalse(index.mIndexedLabels.containsKey(clock.key));
+        assertEquals("camera", index.mIndexedLabels.get(camera.key));
+        assertEquals("contacts", index.mIndexedLabels.get(newTask(5, null).key));
+    }
+}
@@ -0,0 +1,77 @@
+package com.argonmobile.stackview.model;
+
+import android.graphics.BitmapFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ThumbnailCacheTest {
+
+    File mDir;
+    ThumbnailCache mCache;
+
+    static Profile.TaskKey newKey(int id) {
+        Profile.TaskKey key = new Profile.TaskKey();
+        key.id = id;
+        return key;
+    }
+
+    static File writeFile(File dir, String name, int size) throws IOException {
+        File file = new File(dir, name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[size]);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("thumbnails", "");
+        assertTrue(mDir.delete() && mDir.mkdir());
+        mCache = new ThumbnailCache(new BitmapPool(0), 0, 0, 0, 0, false, mDir, 1000);
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : mDir.listFiles()) {
+            file.delete();
+        }
+        mDir.delete();
+    }
+
+    @Test
+    public void diskTierOnlyKeepsTheThumbnailsOfTheCurrentWidth() throws IOException {
+        File narrow = writeFile(mDir, "1.100.thumb", 3);
+        File wide = writeFile(mDir, "2.200.thumb", 5);
+        File unsized = writeFile(mDir, "3.thumb", 7);
+
+        // Nothing is read or dropped until the width is known
+        assertNull(mCache.getFromDisk(newKey(1), 100, new BitmapFactory.Options()));
+        assertTrue(narrow.exists() && wide.exists() && unsized.exists());
+
+        mCache.setThumbnailWidth(100);
+        assertNull(mCache.getFromDisk(newKey(2), 100, new BitmapFactory.Options()));
+        assertEquals(3, mCache.getDiskSize());
+        assertTrue(narrow.exists());
+        assertFalse(wide.exists() || unsized.exists());
+
+        // A thumbnail of the old width is not read at the new one, and is dropped with the tier
+        mCache.setThumbnailWidth(200);
+        assertNull(mCache.getFromDisk(newKey(1), 200, new BitmapFactory.Options()));
+        assertEquals(0, mCache.getDiskSize());
+        assertFalse(narrow.exists());
+    }
+}